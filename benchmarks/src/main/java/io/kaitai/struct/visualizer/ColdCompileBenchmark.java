@@ -0,0 +1,44 @@
+package io.kaitai.struct.visualizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First compilation of a .ksy spec in a fresh JVM, including class loading of the
+ * Kaitai Struct compiler. Kept apart from {@link CompileBenchmark}, because its setup
+ * compiles the spec and so warms the compiler up before measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class ColdCompileBenchmark {
+    @Param({Samples.WIDE_STRUCT, Samples.LONG_ARRAY})
+    public String spec;
+
+    private String ksyFileName;
+
+    /** Only extracts the spec; must not touch the compiler. */
+    @Setup
+    public void setup() throws Exception {
+        ksyFileName = Samples.spec(spec);
+    }
+
+    @Benchmark
+    public String compileKsy() {
+        return VisualizerPanel.compileKSY(ksyFileName);
+    }
+}
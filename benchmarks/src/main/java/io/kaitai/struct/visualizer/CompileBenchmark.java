@@ -0,0 +1,76 @@
+package io.kaitai.struct.visualizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compilation of .ksy specs: Kaitai Struct compiler, javac and loading of
+ * already compiled bytecode from {@link CompiledSpecCache}. The first compilation
+ * in a fresh JVM is measured by {@link ColdCompileBenchmark}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class CompileBenchmark {
+    @Param({Samples.WIDE_STRUCT, Samples.LONG_ARRAY})
+    public String spec;
+
+    private String ksyFileName;
+    private String javaSrc;
+    private CompiledSpecCache.Entry entry;
+
+    @Setup
+    public void setup() throws Exception {
+        ksyFileName = Samples.spec(spec);
+        javaSrc = VisualizerPanel.compileKSY(ksyFileName);
+
+        entry = new CompiledSpecCache.Entry(
+            Samples.className(spec),
+            Collections.<String>emptyList(),
+            JavaSourceCompiler.compile(Samples.className(spec), javaSrc)
+        );
+    }
+
+    /** Compilation with the compiler already loaded and JIT-compiled. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    public String compileKsyWarm() {
+        return VisualizerPanel.compileKSY(ksyFileName);
+    }
+
+    /** Compilation of generated Java source into bytecode and loading of it. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Class<?> compileJava() throws Exception {
+        return new CompiledSpecCache.Entry(
+            Samples.className(spec),
+            Collections.<String>emptyList(),
+            JavaSourceCompiler.compile(Samples.className(spec), javaSrc)
+        ).load(VisualizerPanel.class.getClassLoader());
+    }
+
+    /** Loading of bytecode, which is what happens on a cache hit. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Class<?> loadCached() throws Exception {
+        return entry.load(VisualizerPanel.class.getClassLoader());
+    }
+}
@@ -0,0 +1,67 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tree exploration: calculation of children of a wide struct and of a long
+ * array, and extraction of position info from a struct.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExploreBenchmark {
+    /** Count of records in the input of {@link Samples#LONG_ARRAY}. */
+    @Param({"1000", "1000000"})
+    public int records;
+
+    private KaitaiStruct wide;
+    private KaitaiStruct longArray;
+    private Object list;
+
+    @Setup
+    public void setup() throws Exception {
+        wide = parse(Samples.WIDE_STRUCT, Samples.input(Samples.WIDE_STRUCT_SIZE));
+        longArray = parse(Samples.LONG_ARRAY, Samples.input(records * Samples.RECORD_SIZE));
+        list = longArray.getClass().getMethod("records").invoke(longArray);
+    }
+
+    private static KaitaiStruct parse(String spec, byte[] input) throws Exception {
+        final Class<?> ksyClass = Samples.load(spec);
+        final KaitaiStruct struct = VisualizerPanel.construct(ksyClass, new ByteBufferKaitaiStream(input));
+        ksyClass.getMethod("_read").invoke(struct);
+        return struct;
+    }
+
+    @Benchmark
+    public List<DataNode> exploreWideStruct() throws Exception {
+        return new DataNode(0, wide, "[root]").computeChildren();
+    }
+
+    @Benchmark
+    public List<DataNode> exploreLongArray() throws Exception {
+        return new DataNode(1, list, "records").computeChildren();
+    }
+
+    @Benchmark
+    public DebugAids debugAidsFromStruct() throws Exception {
+        return DebugAids.fromStruct(wide);
+    }
+}
@@ -0,0 +1,49 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/** `_read` of the top-level struct on synthetic inputs of growing size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+    /** Count of records in the input of {@link Samples#LONG_ARRAY}. */
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    private Class<?> ksyClass;
+    private Method readMethod;
+    private byte[] input;
+
+    @Setup
+    public void setup() throws Exception {
+        ksyClass = Samples.load(Samples.LONG_ARRAY);
+        readMethod = ksyClass.getMethod("_read");
+        input = Samples.input(records * Samples.RECORD_SIZE);
+    }
+
+    @Benchmark
+    public KaitaiStruct read() throws Exception {
+        final KaitaiStruct struct = VisualizerPanel.construct(ksyClass, new ByteBufferKaitaiStream(input));
+        readMethod.invoke(struct);
+        return struct;
+    }
+}
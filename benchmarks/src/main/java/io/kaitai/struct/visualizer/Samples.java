@@ -0,0 +1,79 @@
+package io.kaitai.struct.visualizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Bundled sample specs and synthetic inputs for benchmarks. Everything is
+ * generated locally, so benchmarks run offline and reproducibly.
+ */
+final class Samples {
+    /** Spec with 64 integer fields, a byte array and two instances. */
+    static final String WIDE_STRUCT = "wide_struct";
+    /** Spec with `repeat: eos` array of 8-byte records. */
+    static final String LONG_ARRAY = "long_array";
+
+    /** Size of input, consumed by {@link #WIDE_STRUCT}. */
+    static final int WIDE_STRUCT_SIZE = 16 * (1 + 2 + 4 + 8) + 32;
+    /** Size of one record of {@link #LONG_ARRAY}. */
+    static final int RECORD_SIZE = 8;
+
+    /** Seed of the generator of inputs; fixed to make inputs reproducible. */
+    private static final long SEED = 0x4b534259L;
+
+    private Samples() {}
+
+    /**
+     * Extracts bundled spec into a temporary directory.
+     * @param name Name of the spec without extension
+     * @return Path to the extracted .ksy file
+     */
+    static String spec(String name) throws IOException {
+        final File dir = Files.createTempDirectory("kaitai-bench").toFile();
+        dir.deleteOnExit();
+        final File ksy = new File(dir, name + ".ksy");
+        ksy.deleteOnExit();
+        try (InputStream in = Samples.class.getResourceAsStream("/specs/" + name + ".ksy")) {
+            if (in == null) {
+                throw new IOException("no bundled spec " + name);
+            }
+            Files.copy(in, ksy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return ksy.getPath();
+    }
+
+    /**
+     * Compiles bundled spec and loads it, bypassing {@link CompiledSpecCache},
+     * so benchmarks never touch the user's cache.
+     * @return Top-level class of the spec
+     */
+    static Class<?> load(String name) throws Exception {
+        final String javaSrc = VisualizerPanel.compileKSY(spec(name));
+        return new CompiledSpecCache.Entry(
+            className(name),
+            Collections.<String>emptyList(),
+            JavaSourceCompiler.compile(className(name), javaSrc)
+        ).load(VisualizerPanel.class.getClassLoader());
+    }
+
+    /** Generates pseudo-random input of the given size. */
+    static byte[] input(int size) {
+        final byte[] data = new byte[size];
+        new Random(SEED).nextBytes(data);
+        return data;
+    }
+
+    /** Fully qualified name of the class, generated for the bundled spec. */
+    static String className(String name) {
+        final StringBuilder sb = new StringBuilder("io.kaitai.struct.visualized.");
+        for (final String part : name.split("_")) {
+            sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        return sb.toString();
+    }
+}
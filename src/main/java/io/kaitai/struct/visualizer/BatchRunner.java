@@ -0,0 +1,309 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless mode: parses all files in a directory with one .ksy spec, using all cores.
+ * Spec is compiled only once and the loaded class is shared by all workers. Small
+ * files are read into heap, bigger ones are mapped; each mapping is released as soon
+ * as its file is parsed, so only files of running workers are mapped at once.
+ *
+ * For each file one tab-separated line is printed:
+ * <pre>OK|FAIL	&lt;time, ms&gt;	&lt;file&gt;	[&lt;field&gt;	&lt;offset of error&gt;	&lt;error&gt;]</pre>
+ * followed by a summary line. Field is the path to the attribute, that was being parsed,
+ * and offset is the position in its stream, which is a substream for sized types.
+ */
+public class BatchRunner {
+    /** Files up to this size are read into heap instead of being mapped. */
+    private static final long HEAP_READ_LIMIT = 1024 * 1024;
+
+    private final Class<?> ksyClass;
+    private final Method readMethod;
+    private final PrintStream out;
+
+    public BatchRunner(Class<?> ksyClass, PrintStream out) throws NoSuchMethodException {
+        this.ksyClass = ksyClass;
+        this.readMethod = ksyClass.getMethod("_read");
+        this.out = out;
+    }
+
+    /** Result of parsing of one file. */
+    public static class Result {
+        private final File file;
+        private final long nanos;
+        /** Path to the attribute, that was being parsed, when error was thrown. */
+        private final String errorPath;
+        /** Position of the stream, where error was thrown, or -1 if parsing was successful or it is unknown. */
+        private final long errorOffset;
+        private final Throwable error;
+
+        Result(File file, long nanos, String errorPath, long errorOffset, Throwable error) {
+            this.file = file;
+            this.nanos = nanos;
+            this.errorPath = errorPath;
+            this.errorOffset = errorOffset;
+            this.error = error;
+        }
+
+        public File file() {
+            return file;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        /** Path to the attribute, that was being parsed, e.g. {@code body.items[3]}; empty if unknown. */
+        public String errorPath() {
+            return errorPath;
+        }
+
+        /**
+         * Position of the error in the stream of {@link #errorPath}, or -1 if parsing was
+         * successful or failed before the struct was created.
+         */
+        public long errorOffset() {
+            return errorOffset;
+        }
+
+        public Throwable error() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(isSuccess() ? "OK" : "FAIL")
+              .append('\t').append(nanos / 1000000)
+              .append('\t').append(file.getPath());
+            if (!isSuccess()) {
+                sb.append('\t').append(errorPath)
+                  .append('\t').append(errorOffset)
+                  .append('\t').append(error);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Parses one file and reports result. Exceptions, thrown by parsing, are reported
+     * in the result, as well as {@link StackOverflowError} and {@link OutOfMemoryError}:
+     * malformed input easily causes them by deep recursion or a huge size. Other errors
+     * are thrown.
+     */
+    public Result parse(File file) {
+        final long start = System.nanoTime();
+        KaitaiStream io = null;
+        KaitaiStruct struct = null;
+        try {
+            io = open(file);
+            struct = VisualizerPanel.construct(ksyClass, io);
+            readMethod.invoke(struct);
+            return new Result(file, System.nanoTime() - start, null, -1, null);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error && !(cause instanceof StackOverflowError || cause instanceof OutOfMemoryError)) {
+                throw (Error) cause;
+            }
+            return failure(file, start, struct, cause);
+        } catch (Exception e) {
+            return failure(file, start, struct, e);
+        } finally {
+            if (io != null) {
+                close(io);
+            }
+        }
+    }
+
+    private static Result failure(File file, long start, KaitaiStruct root, Throwable error) {
+        if (root == null) {
+            return new Result(file, System.nanoTime() - start, "", -1, error);
+        }
+        final StringBuilder path = new StringBuilder();
+        final KaitaiStruct failed = failedStruct(root, path);
+        return new Result(file, System.nanoTime() - start, path.toString(), MappedKaitaiStream.position(failed._io()), error);
+    }
+
+    /**
+     * Finds the struct, that was being parsed when error was thrown, following attributes,
+     * which have start position, but no end position yet, down from the root. Code with
+     * position info assigns child structs before calling their {@code _read}, so they
+     * are reachable even if their parsing has failed.
+     * @param path Receiver of the path to the attribute, that was being parsed
+     */
+    static KaitaiStruct failedStruct(KaitaiStruct root, StringBuilder path) {
+        KaitaiStruct struct = root;
+        while (true) {
+            final StructMetadata meta = StructMetadata.of(struct.getClass());
+            if (!meta.hasDebugInfo()) return struct;
+
+            final Map<String, ? extends Number> starts = meta.attrStart(struct);
+            final Map<String, ? extends Number> ends = meta.attrEnd(struct);
+            // Instance, calculated while a field is parsed, is started too: the one with
+            // the greatest start position is taken, as attributes are ordered by it
+            StructMetadata.Attribute started = null;
+            for (final StructMetadata.Attribute attr : meta.attributes(struct)) {
+                if (starts.containsKey(attr.name()) && !ends.containsKey(attr.name())) {
+                    started = attr;
+                }
+            }
+            if (started == null) return struct;
+
+            if (path.length() > 0) path.append('.');
+            path.append(started.name());
+            Object value = started.get(struct);
+            if (value instanceof List) {
+                // Elements, that have end position, were parsed successfully
+                final List<? extends Number> arrEnds = meta.arrEnd(struct).get(started.name());
+                final int idx = arrEnds != null ? arrEnds.size() : 0;
+                path.append('[').append(idx).append(']');
+                final List<?> list = (List<?>) value;
+                value = idx < list.size() ? list.get(idx) : null;
+            }
+            if (!(value instanceof KaitaiStruct)) return struct;
+            struct = (KaitaiStruct) value;
+        }
+    }
+
+    private static KaitaiStream open(File file) throws IOException {
+        if (file.length() <= HEAP_READ_LIMIT) {
+            return new ByteBufferKaitaiStream(Files.readAllBytes(file.toPath()));
+        }
+        return new MappedKaitaiStream(file.getPath());
+    }
+
+    /**
+     * Parses all files in parallel, printing result of each file as soon as it is ready.
+     * @param files Files to parse
+     * @param parallelism Count of worker threads
+     * @return Count of files, that failed to parse
+     */
+    public int run(List<File> files, int parallelism) {
+        final Result[] results = new Result[files.size()];
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ParseTask(files, results, 0, files.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        int failed = 0;
+        long nanos = 0;
+        for (final Result r : results) {
+            if (!r.isSuccess()) ++failed;
+            nanos += r.nanos();
+        }
+        out.println("# files: " + results.length + ", failed: " + failed + ", total parse time: " + nanos / 1000000 + " ms");
+        return failed;
+    }
+
+    private class ParseTask extends RecursiveAction {
+        private final List<File> files;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<File> files, Result[] results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    results[from] = parse(files.get(from));
+                    synchronized (out) {
+                        out.println(results[from]);
+                    }
+                }
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            invokeAll(
+                new ParseTask(files, results, from, mid),
+                new ParseTask(files, results, mid, to)
+            );
+        }
+    }
+
+    /** Lists regular files in the directory (recursively), in a stable order. */
+    public static List<File> listFiles(File dir) {
+        final List<File> result = new ArrayList<>();
+        collect(dir, result);
+        return result;
+    }
+
+    private static void collect(File file, List<File> result) {
+        if (file.isFile()) {
+            result.add(file);
+            return;
+        }
+        final File[] children = file.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (final File c : children) {
+            collect(c, result);
+        }
+    }
+
+    private static void close(KaitaiStream io) {
+        try {
+            io.close();
+        } catch (IOException e) {
+            // nothing to do, file was only read
+        }
+    }
+
+    /**
+     * Entry point of the batch mode.
+     * @param args {@code <file.ksy> <directory or file> [<threads>]}
+     * @return Process exit code: 0 if all files were parsed successfully, 1 otherwise
+     */
+    public static int execute(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: --batch <file.ksy> <directory> [<threads>]");
+            return 2;
+        }
+        final int threads;
+        try {
+            threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid count of threads: " + args[2]);
+            System.err.println("Usage: --batch <file.ksy> <directory> [<threads>]");
+            return 2;
+        }
+        if (threads < 1) {
+            System.err.println("Count of threads must be positive: " + args[2]);
+            return 2;
+        }
+
+        final Metrics metrics = new Metrics();
+        final Class<?> ksyClass = VisualizerPanel.loadKSY(args[0], metrics);
+        System.out.println("# " + metrics.summary());
+
+        final BatchRunner runner = new BatchRunner(ksyClass, System.out);
+        return runner.run(listFiles(new File(args[1])), threads) == 0 ? 0 : 1;
+    }
+}
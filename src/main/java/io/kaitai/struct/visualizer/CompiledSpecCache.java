@@ -0,0 +1,341 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.Version;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * On-disk cache of bytecode, produced from .ksy files. Each entry is stored in
+ * a separate directory, named after the hash of the spec (including all its
+ * imports), the compiler version and the runtime configuration, so on a hit
+ * both Kaitai Struct and Java compilation steps can be skipped.
+ *
+ * Total size of the cache is bounded; least recently used entries are evicted
+ * first.
+ */
+public class CompiledSpecCache {
+    /** Name of the file with entry metadata inside each entry directory. */
+    private static final String META_FILE = "entry.properties";
+    /** Extension of files with bytecode inside each entry directory. */
+    private static final String CLASS_EXT = ".class";
+    /** Default maximum size of the cache, in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    private final File dir;
+    private final long maxSize;
+
+    private int hits;
+    private int misses;
+
+    public CompiledSpecCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates cache in the directory, given by {@code kaitai.cache.dir} system property,
+     * or in {@code ~/.kaitai/visualizer/cache} by default. Maximum size could be set
+     * with {@code kaitai.cache.maxSize} system property.
+     */
+    public static CompiledSpecCache createDefault() {
+        final String dirName = System.getProperty(
+            "kaitai.cache.dir",
+            System.getProperty("user.home") + File.separator + ".kaitai" + File.separator + "visualizer" + File.separator + "cache"
+        );
+        final long maxSize = Long.getLong("kaitai.cache.maxSize", DEFAULT_MAX_SIZE);
+        return new CompiledSpecCache(new File(dirName), maxSize);
+    }
+
+    /**
+     * Result of compilation: name of the top-level class and bytecode of all generated
+     * classes, as produced by {@link JavaSourceCompiler}.
+     */
+    public static class Entry {
+        private final String className;
+        private final List<String> paramNames;
+        private final Map<String, byte[]> classes;
+
+        public Entry(String className, List<String> paramNames, Map<String, byte[]> classes) {
+            this.className = className;
+            this.paramNames = paramNames;
+            this.classes = classes;
+        }
+
+        public String className() {
+            return className;
+        }
+
+        public List<String> paramNames() {
+            return paramNames;
+        }
+
+        /**
+         * Defines all classes of this entry in a new class loader.
+         * @param parent Class loader that is able to load Kaitai Struct runtime
+         * @return Top-level class of the entry
+         */
+        public Class<?> load(ClassLoader parent) throws ClassNotFoundException {
+            return new BytecodeClassLoader(parent, classes).loadClass(className);
+        }
+    }
+
+    /**
+     * Computes the key of the cache entry.
+     * @param ksyFileName Path to the main .ksy file
+     * @param config Description of the compiler configuration; different configurations
+     *        produce different entries
+     * @return Hex-encoded SHA-256 hash of all inputs of the compilation
+     */
+    public static String computeKey(String ksyFileName, String config) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        md.update(Version.version().getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        md.update(config.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+
+        for (final File spec : specFiles(ksyFileName)) {
+            md.update(spec.getPath().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(Files.readAllBytes(spec.toPath()));
+            md.update((byte) 0);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns the spec and all specs, it imports (recursively), i.e. all files,
+     * which affect result of the compilation.
+     */
+    static Set<File> specFiles(String ksyFileName) throws IOException {
+        final Set<File> specs = new LinkedHashSet<>();
+        collectSpecs(new File(ksyFileName).getCanonicalFile(), specs);
+        return specs;
+    }
+
+    /**
+     * Collects a spec and all its relative imports (recursively).
+     * Absolute imports are resolved by the compiler against import paths,
+     * which are never set by the visualizer, so they are not followed.
+     */
+    private static void collectSpecs(File ksyFile, Set<File> result) throws IOException {
+        if (!result.add(ksyFile)) return;
+
+        final Object yaml;
+        try (Reader reader = new InputStreamReader(new FileInputStream(ksyFile), StandardCharsets.UTF_8)) {
+            yaml = new Yaml(new SafeConstructor()).load(reader);
+        }
+        if (!(yaml instanceof Map)) return;
+        final Object meta = ((Map<?, ?>) yaml).get("meta");
+        if (!(meta instanceof Map)) return;
+        final Object imports = ((Map<?, ?>) meta).get("imports");
+        if (!(imports instanceof List)) return;
+
+        for (final Object imp : (List<?>) imports) {
+            final String name = String.valueOf(imp);
+            if (name.startsWith("/")) continue;
+            final File imported = new File(ksyFile.getParentFile(), name + ".ksy").getCanonicalFile();
+            if (imported.isFile()) {
+                collectSpecs(imported, result);
+            }
+        }
+    }
+
+    /**
+     * Loads entry from the cache.
+     * @param key Key, calculated by {@link #computeKey}
+     * @return Cached entry or {@code null}, if nothing cached for this key
+     */
+    public synchronized Entry get(String key) {
+        final File entryDir = new File(dir, key);
+        final File metaFile = new File(entryDir, META_FILE);
+        if (!metaFile.isFile()) {
+            ++misses;
+            return null;
+        }
+        try {
+            final Properties meta = new Properties();
+            try (InputStream in = new FileInputStream(metaFile)) {
+                meta.load(in);
+            }
+            final Map<String, byte[]> classes = new HashMap<>();
+            final File[] files = entryDir.listFiles();
+            if (files != null) {
+                for (final File f : files) {
+                    final String name = f.getName();
+                    if (!name.endsWith(CLASS_EXT)) continue;
+                    classes.put(name.substring(0, name.length() - CLASS_EXT.length()), Files.readAllBytes(f.toPath()));
+                }
+            }
+            final String params = meta.getProperty("params", "");
+            final List<String> paramNames = params.isEmpty()
+                ? new ArrayList<String>()
+                : new ArrayList<>(Arrays.asList(params.split(",")));
+
+            // Mark entry as recently used
+            entryDir.setLastModified(System.currentTimeMillis());
+            ++hits;
+            return new Entry(meta.getProperty("class"), paramNames, classes);
+        } catch (IOException e) {
+            System.err.println("unable to read cache entry " + entryDir + ": " + e);
+            ++misses;
+            return null;
+        }
+    }
+
+    /**
+     * Stores entry in the cache and evicts old entries, if cache is too big.
+     * Failures are reported, but otherwise ignored: cache is only an optimization.
+     */
+    public synchronized void put(String key, Entry entry) {
+        final File entryDir = new File(dir, key);
+        final File tmpDir = new File(dir, key + ".tmp");
+        try {
+            deleteRecursively(tmpDir);
+            if (!tmpDir.mkdirs()) {
+                throw new IOException("unable to create " + tmpDir);
+            }
+            for (final Map.Entry<String, byte[]> e : entry.classes.entrySet()) {
+                try (OutputStream out = new FileOutputStream(new File(tmpDir, e.getKey() + CLASS_EXT))) {
+                    out.write(e.getValue());
+                }
+            }
+            final Properties meta = new Properties();
+            meta.setProperty("class", entry.className);
+            meta.setProperty("params", String.join(",", entry.paramNames));
+            try (OutputStream out = new FileOutputStream(new File(tmpDir, META_FILE))) {
+                meta.store(out, "Kaitai Struct visualizer compiled spec");
+            }
+            deleteRecursively(entryDir);
+            if (!tmpDir.renameTo(entryDir)) {
+                throw new IOException("unable to rename " + tmpDir + " to " + entryDir);
+            }
+        } catch (IOException e) {
+            System.err.println("unable to store cache entry " + entryDir + ": " + e);
+            deleteRecursively(tmpDir);
+            return;
+        }
+        evict(entryDir);
+    }
+
+    /**
+     * Removes least recently used entries until total size fits into the limit.
+     * @param keep Entry, that was just stored; it is never evicted, even if it alone
+     *        exceeds the limit
+     */
+    private void evict(File keep) {
+        final File[] entries = dir.listFiles();
+        if (entries == null) return;
+
+        long total = 0;
+        final Map<File, Long> sizes = new HashMap<>();
+        for (final File e : entries) {
+            final long size = sizeOf(e);
+            sizes.put(e, size);
+            total += size;
+        }
+        if (total <= maxSize) return;
+
+        Arrays.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (final File e : entries) {
+            if (total <= maxSize) break;
+            if (e.equals(keep)) continue;
+            total -= sizes.get(e);
+            deleteRecursively(e);
+        }
+    }
+
+    public synchronized int hits() {
+        return hits;
+    }
+
+    public synchronized int misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CompiledSpecCache{dir=" + dir + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isFile()) return file.length();
+        long size = 0;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File c : children) {
+                size += sizeOf(c);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File c : children) {
+                deleteRecursively(c);
+            }
+        }
+        file.delete();
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /** Class loader that defines classes from bytecode, loaded from the cache. */
+    private static class BytecodeClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        BytecodeClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            final byte[] code = classes.get(name);
+            if (code == null) {
+                return super.findClass(name);
+            }
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+}
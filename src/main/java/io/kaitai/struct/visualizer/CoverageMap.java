@@ -0,0 +1,354 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bytes of the input, claimed by parsed fields, which allows to find gaps in the spec:
+ * bytes, that no field was read from.
+ *
+ * Coverage is stored as sorted disjoint runs of covered bytes rather than as a bitmap:
+ * its size depends on the count of fields, not on the size of the input, so it stays
+ * cheap for multi-gigabyte inputs. It is built by {@link #build} on a fork/join pool:
+ * every struct (and every chunk of a long list) is walked by a separate task, which
+ * merges ranges, touching the previous one, right away (elements of lists are almost
+ * always contiguous) and turns the rest into sorted disjoint runs. Runs of all tasks
+ * are then merged like sorted lists, without copying them into one array.
+ *
+ * Fields claim their bytes, except structs of the top-level stream: they claim only
+ * the bytes of their own fields, so unread bytes inside a struct are reported as gaps.
+ * Structs from substreams claim their whole range. Only values, already known after
+ * parsing, are walked: lazy instances are not calculated.
+ */
+public class CoverageMap {
+    /** Elements of lists, walked by one task. */
+    private static final int LIST_CHUNK = 4096;
+
+    private final ForkJoinPool pool;
+    /** Ranges, collected by walking tasks. */
+    private final Queue<Ranges> collected = new ConcurrentLinkedQueue<>();
+    /** Covered runs: start and end (exclusive) of every run, sorted and not touching. */
+    private volatile long[] runs = new long[0];
+    private volatile long size;
+    private volatile long coveredBytes;
+    private volatile boolean complete;
+
+    public CoverageMap() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public CoverageMap(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Walks the graph of parsed structs and merges ranges of all their fields.
+     * Should be called in a background thread after parsing is finished.
+     */
+    public void build(KaitaiStruct root) {
+        final KaitaiStream io = root._io();
+        if (StructMetadata.of(root.getClass()).hasDebugInfo()) {
+            pool.invoke(new StructTask(root, io));
+        }
+
+        final PriorityQueue<Ranges> queue = new PriorityQueue<>(Math.max(1, collected.size()), new Comparator<Ranges>() {
+            @Override
+            public int compare(Ranges a, Ranges b) {
+                return Long.compare(a.starts[a.next], b.starts[b.next]);
+            }
+        });
+        for (final Ranges r : collected) {
+            if (r.size > 0) {
+                queue.add(r);
+            }
+        }
+        collected.clear();
+
+        // Take runs of all tasks in the order of their starts and merge overlapping and touching ones
+        long[] merged = new long[16];
+        int n = 0;
+        long covered = 0;
+        while (!queue.isEmpty()) {
+            final Ranges r = queue.poll();
+            final long start = r.starts[r.next];
+            final long end = r.ends[r.next];
+            if (n > 0 && start <= merged[n - 1]) {
+                if (end > merged[n - 1]) {
+                    covered += end - merged[n - 1];
+                    merged[n - 1] = end;
+                }
+            } else {
+                if (n == merged.length) merged = Arrays.copyOf(merged, n * 2);
+                merged[n++] = start;
+                merged[n++] = end;
+                covered += end - start;
+            }
+            if (++r.next < r.size) {
+                queue.add(r);
+            }
+        }
+
+        size = io.size();
+        coveredBytes = covered;
+        runs = Arrays.copyOf(merged, n);
+        complete = true;
+    }
+
+    /** Returns {@code true} if the map is already built. */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** Size of the input in bytes. */
+    public long size() {
+        return size;
+    }
+
+    /** Count of bytes, claimed by at least one field. */
+    public long coveredBytes() {
+        return coveredBytes;
+    }
+
+    /** Count of disjoint covered runs. */
+    public int runCount() {
+        return runs.length / 2;
+    }
+
+    public boolean isCovered(long offset) {
+        final long[] r = runs;
+        final int i = runBefore(r, offset);
+        return i >= 0 && offset < r[2 * i + 1];
+    }
+
+    /**
+     * Finds the first byte at or after the offset, which is not covered.
+     * @return Offset of the byte, or -1 if all bytes till the end of the input are covered
+     */
+    public long nextGap(long offset) {
+        final long[] r = runs;
+        final int i = runBefore(r, offset);
+        final long gap = i >= 0 && offset < r[2 * i + 1] ? r[2 * i + 1] : offset;
+        return gap < size ? gap : -1;
+    }
+
+    /** Returns end of the gap (exclusive), which contains the offset: start of the next run or end of the input. */
+    public long gapEnd(long offset) {
+        final long[] r = runs;
+        final int next = runBefore(r, offset) + 1;
+        return next < r.length / 2 ? r[2 * next] : size;
+    }
+
+    /**
+     * Fills the array with shares of covered bytes in its equal parts of the input:
+     * 0 for the part without covered bytes, 1 only for the fully covered one.
+     */
+    public void fill(float[] parts) {
+        final long[] r = runs;
+        final long total = size;
+        Arrays.fill(parts, 0);
+        if (total == 0 || parts.length == 0) return;
+
+        int run = 0;
+        for (int p = 0; p < parts.length; ++p) {
+            final long from = total * p / parts.length;
+            final long to = total * (p + 1) / parts.length;
+            if (to <= from) continue;
+            long covered = 0;
+            while (run < r.length && r[run + 1] <= from) {
+                run += 2;
+            }
+            for (int i = run; i < r.length && r[i] < to; i += 2) {
+                covered += Math.min(r[i + 1], to) - Math.max(r[i], from);
+            }
+            // Share of a part with a tiny gap must not be rounded to 1
+            parts[p] = covered == to - from ? 1 : Math.min((float) covered / (to - from), Math.nextDown(1f));
+        }
+    }
+
+    /** Index of the last run, which starts at or before the offset, or -1. */
+    private static int runBefore(long[] r, long offset) {
+        int lo = 0;
+        int hi = r.length / 2 - 1;
+        int found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (r[2 * mid] <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** Ranges, collected by one walking task. */
+    private static class Ranges {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int size;
+        /** Index of the next run to merge by {@link #build}. */
+        private int next;
+
+        void add(long start, long end) {
+            if (start < 0 || end <= start) return;
+            // Extend the previous range, if the new one starts inside it or right after it
+            if (size > 0 && start >= starts[size - 1] && start <= ends[size - 1]) {
+                if (end > ends[size - 1]) {
+                    ends[size - 1] = end;
+                }
+                return;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            ++size;
+        }
+
+        /** Sorts the ranges and merges overlapping and touching ones into disjoint runs. */
+        void normalize() {
+            // Count of covering ranges at any offset depends only on the count of starts
+            // and ends before it, so starts and ends can be sorted independently
+            Arrays.sort(starts, 0, size);
+            Arrays.sort(ends, 0, size);
+            int n = 0;
+            int open = 0;
+            long runStart = 0;
+            int s = 0;
+            for (int e = 0; e < size; ) {
+                // Starts go first, so touching ranges are merged. Every run consumes
+                // at least one start and one end, so runs can be written in place
+                if (s < size && starts[s] <= ends[e]) {
+                    if (open++ == 0) runStart = starts[s];
+                    ++s;
+                } else {
+                    if (--open == 0) {
+                        starts[n] = runStart;
+                        ends[n] = ends[e];
+                        ++n;
+                    }
+                    ++e;
+                }
+            }
+            size = n;
+        }
+    }
+
+    /** Returns {@code true} if the value is a struct, which claims bytes by its own fields. */
+    private static boolean isWalked(Object value, KaitaiStream io) {
+        return value instanceof KaitaiStruct
+            && ((KaitaiStruct) value)._io() == io
+            && StructMetadata.of(value.getClass()).hasDebugInfo();
+    }
+
+    /**
+     * Collects ranges of all fields of one struct. Nested structs and long lists
+     * are left to subtasks, added to the list.
+     */
+    private void walk(KaitaiStruct struct, KaitaiStream io, Ranges ranges, List<RecursiveAction> subtasks) {
+        final StructMetadata meta = StructMetadata.of(struct.getClass());
+        final Map<String, ? extends Number> attrStart = meta.attrStart(struct);
+        final Map<String, ? extends Number> attrEnd = meta.attrEnd(struct);
+        final Map<String, ? extends List<? extends Number>> arrStart = meta.arrStart(struct);
+        final Map<String, ? extends List<? extends Number>> arrEnd = meta.arrEnd(struct);
+
+        for (final StructMetadata.Attribute attr : meta.attributes()) {
+            final Object value = attr.get(struct);
+            if (value == null) continue;
+
+            final String name = attr.name();
+            if (isWalked(value, io)) {
+                subtasks.add(new StructTask((KaitaiStruct) value, io));
+            } else if (value instanceof ArrayList) {
+                final ArrayList<?> list = (ArrayList<?>) value;
+                final List<? extends Number> starts = arrStart.get(name);
+                final List<? extends Number> ends = arrEnd.get(name);
+                if (starts == null || ends == null) {
+                    // Positions of elements are unknown, claim the whole list
+                    ranges.add(StructMetadata.pos(attrStart, name), StructMetadata.pos(attrEnd, name));
+                    continue;
+                }
+                for (int i = 0; i < list.size(); i += LIST_CHUNK) {
+                    subtasks.add(new ListTask(list, io, starts, ends, i, Math.min(list.size(), i + LIST_CHUNK)));
+                }
+            } else {
+                ranges.add(StructMetadata.pos(attrStart, name), StructMetadata.pos(attrEnd, name));
+            }
+        }
+    }
+
+    /** Collects ranges of one struct and forks tasks for nested structs and long lists. */
+    private class StructTask extends RecursiveAction {
+        private final KaitaiStruct struct;
+        /** Top-level stream; structs of other streams are not walked. */
+        private final KaitaiStream io;
+
+        StructTask(KaitaiStruct struct, KaitaiStream io) {
+            this.struct = struct;
+            this.io = io;
+        }
+
+        @Override
+        protected void compute() {
+            final Ranges ranges = new Ranges();
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            walk(struct, io, ranges, subtasks);
+            ranges.normalize();
+            collected.add(ranges);
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Collects ranges of a range of elements of a list. Elements, which are structs,
+     * are walked by this task too, so there is no task per element.
+     */
+    private class ListTask extends RecursiveAction {
+        private final ArrayList<?> list;
+        private final KaitaiStream io;
+        private final List<? extends Number> starts;
+        private final List<? extends Number> ends;
+        private final int from;
+        private final int to;
+
+        ListTask(ArrayList<?> list, KaitaiStream io, List<? extends Number> starts, List<? extends Number> ends, int from, int to) {
+            this.list = list;
+            this.io = io;
+            this.starts = starts;
+            this.ends = ends;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final Ranges ranges = new Ranges();
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                final Object value = list.get(i);
+                if (isWalked(value, io)) {
+                    walk((KaitaiStruct) value, io, ranges, subtasks);
+                } else {
+                    ranges.add(StructMetadata.pos(starts, i), StructMetadata.pos(ends, i));
+                }
+            }
+            ranges.normalize();
+            collected.add(ranges);
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.kaitai.struct.visualizer;
+
+import javax.swing.JComponent;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Vertical strip, that shows {@link CoverageMap} of the whole input: every pixel row
+ * represents an equal part of the input and is colored by the share of its bytes,
+ * claimed by parsed fields. Clicking the strip jumps to the nearest gap at or after
+ * the clicked part.
+ */
+public class CoverageMinimap extends JComponent {
+    private static final int WIDTH = 14;
+    /** Color of the fully covered part of the input. */
+    private static final Color COVERED = new Color(0xd0e8d0);
+    /** Color of the part without covered bytes. */
+    private static final Color GAP = new Color(0xe04040);
+    /** Maximum shade of the part with gaps, so that even one-byte gap is visible. */
+    private static final float MAX_PARTIAL = 0.6f;
+    /** Color of the strip, while coverage is not known yet. */
+    private static final Color UNKNOWN = new Color(0xe0e0e0);
+
+    /** Receiver of the gap, clicked in the minimap. */
+    public interface Navigator {
+        /**
+         * @param start Offset of the first byte of the gap
+         * @param end Offset right after the gap (exclusive)
+         */
+        void jumpTo(long start, long end);
+    }
+
+    private final Navigator navigator;
+    /** Coverage of the current input; accessed only from the event dispatch thread. */
+    private CoverageMap coverage;
+    /** Shares of covered bytes per pixel row, recalculated when height or coverage changes. */
+    private float[] rows = new float[0];
+
+    public CoverageMinimap(Navigator navigator) {
+        this.navigator = navigator;
+        setToolTipText("Parsed bytes; click to jump to the next unparsed gap");
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                jumpToGap(e.getY());
+            }
+        });
+    }
+
+    /** Shows coverage of the newly loaded input, or nothing if {@code null}. */
+    public void setCoverage(CoverageMap coverage) {
+        this.coverage = coverage;
+        rows = new float[0];
+        if (coverage != null) {
+            setToolTipText(String.format("%d of %d bytes parsed (%.1f%%) in %d runs; click to jump to the next unparsed gap",
+                coverage.coveredBytes(),
+                coverage.size(),
+                coverage.size() > 0 ? 100.0 * coverage.coveredBytes() / coverage.size() : 100.0,
+                coverage.runCount()
+            ));
+        }
+        repaint();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(WIDTH, super.getPreferredSize().height);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        final int height = getHeight();
+        if (coverage == null || coverage.size() == 0) {
+            g.setColor(UNKNOWN);
+            g.fillRect(0, 0, getWidth(), height);
+            return;
+        }
+        if (rows.length != height) {
+            rows = new float[height];
+            coverage.fill(rows);
+        }
+        for (int y = 0; y < height; ++y) {
+            g.setColor(blend(rows[y]));
+            g.drawLine(0, y, getWidth() - 1, y);
+        }
+    }
+
+    private void jumpToGap(int y) {
+        final CoverageMap map = coverage;
+        if (map == null || map.size() == 0 || getHeight() == 0) return;
+
+        final long offset = map.size() * Math.max(0, y) / getHeight();
+        long gap = map.nextGap(offset);
+        if (gap < 0) {
+            // No gaps after the click, wrap around to the beginning
+            gap = map.nextGap(0);
+        }
+        if (gap >= 0) {
+            navigator.jumpTo(gap, map.gapEnd(gap));
+        }
+    }
+
+    private static Color blend(float covered) {
+        if (covered < 1) {
+            covered = Math.min(covered, MAX_PARTIAL);
+        }
+        return new Color(
+            mix(GAP.getRed(), COVERED.getRed(), covered),
+            mix(GAP.getGreen(), COVERED.getGreen(), covered),
+            mix(GAP.getBlue(), COVERED.getBlue(), covered)
+        );
+    }
+
+    private static int mix(int from, int to, float share) {
+        return Math.round(from + (to - from) * share);
+    }
+}
@@ -2,189 +2,410 @@ package io.kaitai.struct.visualizer;
 
 import io.kaitai.struct.KaitaiStruct;
 
-import javax.swing.*;
-import javax.swing.tree.DefaultMutableTreeNode;
-import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.MutableTreeNode;
-import java.beans.PropertyChangeListener;
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-public class DataNode extends DefaultMutableTreeNode {
+/**
+ * Node of {@link DataTreeModel}, which represents a value in the graph of parsed
+ * structs. Nodes are kept as compact as possible: children are created only
+ * when node is explored and are discarded when it is collapsed.
+ */
+public class DataNode {
+    /**
+     * Maximum count of children, created for a list at once. Bigger lists are
+     * split into nested buckets of ranges, each of them explored separately.
+     */
+    private static final int BUCKET_SIZE = 1000;
+
+    /** Position of the value, which is unknown. */
+    public static final long NO_POS = -1;
+
+    private static final DataNode[] NO_CHILDREN = new DataNode[0];
+    /** Count of leading bytes of byte arrays, shown in the label. */
+    private static final int MAX_LABEL_BYTES = 10;
+    /** Values with longer text representation are truncated in the label. */
+    private static final int MAX_LABEL_CHARS = 256;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private boolean explored = false;
     private final int depth;
-    private Object value;
+    /**
+     * Value of the node. Lazy value is calculated in a background thread and then read
+     * by the event dispatch thread to render the node, so it is volatile.
+     */
+    private volatile Object value;
     private final Method method;
+    /** Name of the node, {@code null} for list elements (name derived from {@link #arrayIdx}). */
     private final String name;
-    private final Integer posStart;
-    private final Integer posEnd;
+    private final long posStart;
+    private final long posEnd;
+    private DataNode parent;
+    /** Children of the explored node, {@code null} if node wasn't explored yet. */
+    private DataNode[] children;
+    /** For lists: index of the first element, represented by this node (inclusive). */
+    private final int rangeStart;
+    /** For lists: index of the last element, represented by this node (exclusive), or -1 for the whole list. */
+    private final int rangeEnd;
+    /** Debug info of the struct, which owns the field (or list element), represented by this node. */
+    private DebugAids debug;
+    /** Name of the attribute in {@link #debug}, which holds the value (or list with it). */
+    private String attrName;
+    /** For list elements: index of the element in the list; -1 otherwise. */
+    private int arrayIdx = -1;
+    /**
+     * Time of calculation of the lazy value, or -1 if value was known after parsing.
+     * Written before {@link #value}, so it is visible to readers of the calculated value.
+     */
+    private volatile long evalNanos = -1;
 
     public DataNode(int depth, Object value, String name) {
-        this(depth, value, null, name, null, null);
+        this(depth, value, null, name, NO_POS, NO_POS);
     }
 
-    private DataNode(int depth, Object value, Method method, Integer posStart, Integer posEnd) {
-        this(depth, value, method, null, posStart, posEnd);
+    /** Creates list element node. */
+    private DataNode(int depth, Object value, int arrayIdx) {
+        this(depth, value, null, null, NO_POS, NO_POS, 0, -1);
+        this.arrayIdx = arrayIdx;
     }
 
-    private DataNode(int depth, Object value, Method method, String name, Integer posStart, Integer posEnd) {
+    /** Creates bucket node, which represents a range of elements of the list. */
+    private DataNode(int depth, ArrayList list, int rangeStart, int rangeEnd) {
+        this(depth, list, null, "[" + rangeStart + ".." + (rangeEnd - 1) + "]", NO_POS, NO_POS, rangeStart, rangeEnd);
+    }
+
+    private DataNode(int depth, Object value, Method method, long posStart, long posEnd) {
+        this(depth, value, method, method.getName(), posStart, posEnd);
+    }
+
+    private DataNode(int depth, Object value, Method method, String name, long posStart, long posEnd) {
+        this(depth, value, method, name, posStart, posEnd, 0, -1);
+    }
+
+    private DataNode(int depth, Object value, Method method, String name, long posStart, long posEnd, int rangeStart, int rangeEnd) {
         this.depth = depth;
         this.value = value;
         this.method = method;
-        if (name != null) {
-            this.name = name;
-        } else {
-            this.name = method != null ? method.getName() : "?";
-        }
+        this.name = name;
         this.posStart = posStart;
         this.posEnd = posEnd;
-
-        add(new DefaultMutableTreeNode("Loading...", false));
-        setAllowsChildren(true);
-
-        updateVisual();
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
     }
 
-    public Integer posStart() {
+    /** Start position of the value, or {@link #NO_POS} if it is unknown. */
+    public long posStart() {
+        if (posStart == NO_POS && arrayIdx >= 0 && debug != null) {
+            return debug.getStart(attrName, arrayIdx);
+        }
         return posStart;
     }
 
-    public Integer posEnd() {
+    /** Position right after the value (exclusive), or {@link #NO_POS} if it is unknown. */
+    public long posEnd() {
+        if (posEnd == NO_POS && arrayIdx >= 0 && debug != null) {
+            return debug.getEnd(attrName, arrayIdx);
+        }
         return posEnd;
     }
 
-    private void updateVisual() {
-        StringBuilder sb = new StringBuilder(name);
+    public String name() {
+        if (name != null) return name;
+        if (arrayIdx >= 0) return appendIndex(new StringBuilder(8), arrayIdx).toString();
+        return "?";
+    }
+
+    public DataNode getParent() {
+        return parent;
+    }
+
+    /** Returns true if this node is {@code node} or one of its descendants. */
+    public boolean isDescendantOf(DataNode node) {
+        for (DataNode n = this; n != null; n = n.parent) {
+            if (n == node) return true;
+        }
+        return false;
+    }
+
+    /** Count of children; 0 for nodes, that were not explored yet. */
+    public int getChildCount() {
+        return children != null ? children.length : 0;
+    }
+
+    public DataNode getChildAt(int index) {
+        return children[index];
+    }
+
+    public int getIndex(DataNode child) {
+        if (children == null) return -1;
+        for (int i = 0; i < children.length; ++i) {
+            if (children[i] == child) return i;
+        }
+        return -1;
+    }
+
+    /** Value of the node, or {@code null} if it wasn't calculated yet. */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return appendLabel(new StringBuilder()).toString();
+    }
+
+    /** Creates a child, that shows why children of this node could not be calculated. */
+    DataNode errorChild(Exception error) {
+        return new DataNode(depth + 1, String.valueOf(error), "[error]");
+    }
+
+    /** Remembers where to look for positions of list elements, that are children of this node. */
+    private DataNode withDebug(DebugAids debug, String attrName) {
+        this.debug = debug;
+        this.attrName = attrName;
+        return this;
+    }
+
+    /**
+     * Appends text, shown in the tree, to the buffer. Called only for visible rows
+     * by {@link DataNodeRenderer}, so nothing is formatted for nodes, that are never shown.
+     * @return {@code sb}
+     */
+    StringBuilder appendLabel(StringBuilder sb) {
+        if (name != null) {
+            sb.append(name);
+        } else if (arrayIdx >= 0) {
+            appendIndex(sb, arrayIdx);
+        } else {
+            sb.append('?');
+        }
+        // Read once, as it could be calculated meanwhile
+        final Object value = this.value;
         if (value != null) {
             if (value instanceof byte[]) {
                 sb.append(" = ");
                 byte[] bytes = (byte[]) value;
-                for (int i = 0; i < 10 && i < bytes.length; i++) {
-                    sb.append(String.format("%02x ", bytes[i]));
+                for (int i = 0; i < MAX_LABEL_BYTES && i < bytes.length; i++) {
+                    sb.append(HEX_DIGITS[(bytes[i] >> 4) & 0xf]).append(HEX_DIGITS[bytes[i] & 0xf]).append(' ');
+                }
+                if (bytes.length > MAX_LABEL_BYTES) {
+                    sb.append("...");
                 }
             } else if (value instanceof ArrayList) {
-                ArrayList list = (ArrayList) value;
-                sb.append(String.format(" (%d = 0x%x entries)", list.size(), list.size()));
+                final int size = rangeEnd(((ArrayList) value).size()) - rangeStart;
+                sb.append(" (").append(size).append(" = 0x");
+                appendHex(sb, size);
+                sb.append(" entries)");
             } else if (value instanceof KaitaiStruct) {
                 // do not expand
             } else {
                 sb.append(" = ");
-                sb.append(value.toString());
+                // Strings could be huge, so do not copy them as a whole
+                final CharSequence text = value instanceof CharSequence ? (CharSequence) value : value.toString();
+                if (text.length() > MAX_LABEL_CHARS) {
+                    sb.append(text, 0, MAX_LABEL_CHARS).append("...");
+                } else {
+                    sb.append(text);
+                }
             }
         }
-        setUserObject(sb.toString());
+        if (evalNanos >= 0) {
+            sb.append("  (").append(evalNanos / 1000000).append(" ms)");
+        }
+        return sb;
     }
 
-    private void setChildren(List<DataNode> children) {
-        removeAllChildren();
-        setAllowsChildren(children.size() > 0);
-        for (MutableTreeNode node : children) {
-            add(node);
+    /** Appends index of the list element, zero padded to 4 digits, same as {@code "%04d"}. */
+    private static StringBuilder appendIndex(StringBuilder sb, int idx) {
+        for (int i = 1000; i > 1 && idx < i; i /= 10) {
+            sb.append('0');
         }
-        explored = true;
+        return sb.append(idx);
     }
 
-    @Override
-    public boolean isLeaf() {
-        return false;
+    private static void appendHex(StringBuilder sb, int value) {
+        int shift = 28;
+        while (shift > 0 && (value >>> shift) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
     }
 
-    public void explore(final DefaultTreeModel model, final PropertyChangeListener progressListener) {
-        if (explored)
-            return;
+    /** Returns index of the last element of the list, represented by this node (exclusive). */
+    private int rangeEnd(int listSize) {
+        return rangeEnd < 0 ? listSize : rangeEnd;
+    }
 
-        SwingWorker<List<DataNode>, Void> worker = new SwingWorker<List<DataNode>, Void>() {
-            @Override
-            protected List<DataNode> doInBackground() throws Exception {
-                // Here access database if needed
-                setProgress(0);
-                final List<DataNode> children = new ArrayList<>();
+    void setChildren(List<DataNode> children) {
+        this.children = NO_CHILDREN;
+        appendChildren(children);
+    }
 
-                System.out.println("exploring field " + name + ", value = " + value);
+    /**
+     * Appends children to this node, marking it as explored. Used to populate
+     * the node while its value is still being parsed.
+     */
+    void appendChildren(List<DataNode> children) {
+        final int old = getChildCount();
+        final DataNode[] result = this.children != null
+            ? Arrays.copyOf(this.children, old + children.size())
+            : new DataNode[children.size()];
+        for (int i = 0; i < children.size(); ++i) {
+            final DataNode child = children.get(i);
+            child.parent = this;
+            result[old + i] = child;
+        }
+        this.children = result;
+        explored = true;
+    }
 
-                // Wasn't loaded yet?
-                if (value == null) {
-                    DataNode parentNode = (DataNode) parent;
-                    System.out.println("parentNode: name = " + parentNode.name + "; value = " + parentNode.value);
-                    value = method.invoke(parentNode.value);
-                }
+    /**
+     * Forgets children of this node, so they will be recreated on the next
+     * exploration. Calculated values are kept in the parsed structs, so
+     * recreation is cheap.
+     */
+    void discardChildren() {
+        children = null;
+        explored = false;
+    }
 
-                // Still null?
-                if (value == null) {
-                    value = "[null]";
-                    updateVisual();
-                    return children;
-                }
+    boolean isExplored() {
+        return explored;
+    }
 
-                Class<?> cl = value.getClass();
-                System.out.println("cl = " + cl);
+    /** Returns {@code true} if this node represents a range of elements of a huge list. */
+    boolean isBucket() {
+        return rangeEnd >= 0;
+    }
 
-                if (isImmediate(value, cl)) {
-                    updateVisual();
-                    return children;
-                }
+    /** Struct, represented by this node, or {@code null} if value of the node is not a struct. */
+    KaitaiStruct getStruct() {
+        return value instanceof KaitaiStruct ? (KaitaiStruct) value : null;
+    }
 
-                if (value instanceof ArrayList) {
-                    ArrayList list = (ArrayList) value;
+    /**
+     * Finds explored child, that represents the attribute of the struct.
+     * @return Child node or {@code null}, if there is no such child
+     */
+    DataNode childForAttr(String attrName) {
+        for (int i = 0; i < getChildCount(); ++i) {
+            final DataNode child = getChildAt(i);
+            if (child.method != null && child.name.equals(attrName)) {
+                return child;
+            }
+        }
+        return null;
+    }
 
-                    for (int i = 0; i < list.size(); i++) {
-                        Object el = list.get(i);
-                        String arrayIdxStr = String.format("%04d", i);
+    /**
+     * Finds child by the name, shown in the tree. Used to restore expanded nodes
+     * in a tree, built from another parse of the same file.
+     * @return Child or {@code null}, if node has no such child or wasn't explored yet
+     */
+    DataNode childForName(String name) {
+        for (int i = 0; i < getChildCount(); ++i) {
+            final DataNode child = getChildAt(i);
+            if (child.name().equals(name)) return child;
+        }
+        return null;
+    }
 
-                        children.add(new DataNode(depth + 1, el, arrayIdxStr));
-                    }
-                } else if (value instanceof KaitaiStruct) {
-                    DebugAids debug = DebugAids.fromStruct((KaitaiStruct) value);
+    /**
+     * Finds explored child, that represents the list element or a bucket, containing it.
+     * @return Child node or {@code null}, if there is no such child
+     */
+    DataNode childForIndex(int idx) {
+        for (int i = 0; i < getChildCount(); ++i) {
+            final DataNode node = getChildAt(i);
+            if (node.arrayIdx == idx) return node;
+            if (node.isBucket() && node.rangeStart <= idx && idx < node.rangeEnd) return node;
+        }
+        return null;
+    }
 
-                    for (Method m : cl.getDeclaredMethods()) {
-                        // Ignore static methods, i.e. "fromFile"
-                        if (Modifier.isStatic(m.getModifiers()))
-                            continue;
+    /**
+     * Calculates children of this node, evaluating lazy value if needed. Called
+     * from a background thread by {@link ExploreScheduler}; resulting list should be
+     * attached with {@link #setChildren} from the event dispatch thread.
+     * @return Children of this node
+     * @throws InterruptedException If exploration was cancelled while lazy value was calculated
+     * @throws Exception If children could not be created
+     */
+    List<DataNode> computeChildren() throws Exception {
+        final List<DataNode> children = new ArrayList<>();
 
-                        String methodName = m.getName();
+        // Wasn't loaded yet?
+        if (value == null) {
+            final KaitaiStruct parentStruct = (KaitaiStruct) parent.value;
+            final InstanceEvaluator.Outcome outcome = InstanceEvaluator.shared().evaluate(parentStruct, method);
+            evalNanos = outcome.nanos();
+            value = outcome.failure() != null ? outcome.failure() : outcome.value();
+        }
 
-                        // Ignore all internal methods, i.e. "_io", "_parent", "_root"
-                        if (methodName.charAt(0) == '_')
-                            continue;
+        // Still null?
+        if (value == null) {
+            value = "[null]";
+            return children;
+        }
 
-                        try {
-                            Field field = cl.getDeclaredField(methodName);
-                            field.setAccessible(true);
-                            Object curValue = field.get(value);
+        Class<?> cl = value.getClass();
 
-                            Integer posStart = debug.getStart(methodName);
-                            Integer posEnd = debug.getEnd(methodName);
+        if (isImmediate(value, cl)) {
+            return children;
+        }
 
-                            DataNode dn = new DataNode(depth + 1, curValue, m, posStart, posEnd);
-                            children.add(dn);
-                        } catch (NoSuchFieldException e) {
-                            System.out.println("no field, ignoring method " + methodName);
-                        }
-                    }
-                }
-                setProgress(0);
-                return children;
-            }
+        if (value instanceof ArrayList) {
+            ArrayList list = (ArrayList) value;
+            final int end = rangeEnd(list.size());
+            final int count = end - rangeStart;
 
-            @Override
-            protected void done() {
-                try {
-                    setChildren(get());
-                    model.nodeStructureChanged(DataNode.this);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    // Notify user of error.
+            if (count <= BUCKET_SIZE) {
+                for (int i = rangeStart; i < end; i++) {
+                    // Positions are resolved lazily from the debug info of the struct
+                    children.add(new DataNode(depth + 1, list.get(i), i).withDebug(debug, attrName));
+                }
+            } else {
+                // Too many elements: split them into at most BUCKET_SIZE buckets,
+                // which will be explored only when user expands them
+                long step = BUCKET_SIZE;
+                while (step * BUCKET_SIZE < count) {
+                    step *= BUCKET_SIZE;
+                }
+                for (long i = rangeStart; i < end; i += step) {
+                    children.add(new DataNode(depth + 1, list, (int) i, (int) Math.min(i + step, end)).withDebug(debug, attrName));
                 }
-                super.done();
             }
-        };
-        if (progressListener != null) {
-            worker.getPropertyChangeSupport().addPropertyChangeListener("progress", progressListener);
+        } else if (value instanceof KaitaiStruct) {
+            children.addAll(createChildren(StructMetadata.of(cl).attributes((KaitaiStruct) value)));
+        }
+        return children;
+    }
+
+    /**
+     * Creates nodes for the given attributes of the struct, represented by this node.
+     * @param attrs Attributes of the struct
+     * @return New nodes, not attached to this node yet
+     * @throws NoSuchFieldException If struct has no position info
+     */
+    List<DataNode> createChildren(List<StructMetadata.Attribute> attrs) throws NoSuchFieldException {
+        final KaitaiStruct struct = (KaitaiStruct) value;
+        final DebugAids debug = DebugAids.fromStruct(struct);
+        final List<DataNode> children = new ArrayList<>(attrs.size());
+
+        for (StructMetadata.Attribute attr : attrs) {
+            final String methodName = attr.name();
+            Object curValue = attr.get(struct);
+
+            long posStart = debug.getStart(methodName);
+            long posEnd = debug.getEnd(methodName);
+
+            DataNode dn = new DataNode(depth + 1, curValue, attr.method(), posStart, posEnd).withDebug(debug, methodName);
+            children.add(dn);
         }
-        worker.execute();
+        return children;
     }
 
     public static boolean isImmediate(Object value, Class<?> cl) {
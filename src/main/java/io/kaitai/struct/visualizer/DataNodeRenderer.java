@@ -0,0 +1,64 @@
+package io.kaitai.struct.visualizer;
+
+import javax.swing.JTree;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import java.awt.Component;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders labels of {@link DataNode}s. Labels are formatted only when the row
+ * is actually painted, into one reused buffer, and the recently shown labels
+ * are cached, so scrolling does not format them again. Cache is cleared, when the
+ * root of the tree changes, so nodes (and values) of a replaced tree are not kept.
+ */
+public class DataNodeRenderer extends DefaultTreeCellRenderer {
+    /** Count of cached labels; should be enough for several screens of rows. */
+    private static final int CACHE_SIZE = 2048;
+
+    /** Label of the node together with the value it was formatted for. */
+    private static class Label {
+        private final Object value;
+        private final String text;
+
+        Label(Object value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+    }
+
+    private final StringBuilder buffer = new StringBuilder();
+    private final Map<DataNode, Label> cache = new LinkedHashMap<DataNode, Label>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<DataNode, Label> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    /** Root of the tree, which nodes are cached. */
+    private Object root;
+
+    @Override
+    public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected, boolean expanded, boolean leaf, int row, boolean hasFocus) {
+        final Object currentRoot = tree.getModel().getRoot();
+        if (currentRoot != root) {
+            cache.clear();
+            root = currentRoot;
+        }
+        if (value instanceof DataNode) {
+            value = label((DataNode) value);
+        }
+        return super.getTreeCellRendererComponent(tree, value, selected, expanded, leaf, row, hasFocus);
+    }
+
+    /** Returns label of the node, formatting it if it is not cached or its value was calculated since. */
+    String label(DataNode node) {
+        final Object value = node.getValue();
+        Label label = cache.get(node);
+        if (label == null || label.value != value) {
+            buffer.setLength(0);
+            label = new Label(value, node.appendLabel(buffer).toString());
+            cache.put(node, label);
+        }
+        return label.text;
+    }
+}
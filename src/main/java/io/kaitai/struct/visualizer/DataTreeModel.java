@@ -0,0 +1,116 @@
+package io.kaitai.struct.visualizer;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Tree model, that exposes {@link DataNode}s directly, without copying them into
+ * {@code DefaultMutableTreeNode}s. Nodes, that were not explored yet, have one
+ * shared placeholder child, so they could be expanded; their real children are
+ * calculated on demand by {@link ExploreScheduler}.
+ *
+ * All methods must be called from the event dispatch thread.
+ */
+public class DataTreeModel implements TreeModel {
+    /** Placeholder child of all nodes, which children are not known yet. */
+    static final Object LOADING = new Object() {
+        @Override
+        public String toString() {
+            return "Loading...";
+        }
+    };
+
+    private final EventListenerList listeners = new EventListenerList();
+    private DataNode root;
+
+    public void setRoot(DataNode root) {
+        this.root = root;
+        fireTreeStructureChanged(root != null ? new TreePath(root) : null);
+    }
+
+    @Override
+    public DataNode getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        final DataNode node = (DataNode) parent;
+        return node.isExplored() ? node.getChildAt(index) : LOADING;
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        if (!(parent instanceof DataNode)) return 0;
+        final DataNode node = (DataNode) parent;
+        return node.isExplored() ? node.getChildCount() : 1;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return getChildCount(node) == 0;
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        if (!(parent instanceof DataNode)) return -1;
+        final DataNode node = (DataNode) parent;
+        if (!node.isExplored()) return child == LOADING ? 0 : -1;
+        return child instanceof DataNode ? node.getIndex((DataNode) child) : -1;
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+        // Tree is not editable
+    }
+
+    /** Returns path from the root to the node. */
+    public TreePath pathTo(DataNode node) {
+        int depth = 0;
+        for (DataNode n = node; n != null; n = n.getParent()) {
+            ++depth;
+        }
+        final Object[] path = new Object[depth];
+        for (DataNode n = node; n != null; n = n.getParent()) {
+            path[--depth] = n;
+        }
+        return new TreePath(path);
+    }
+
+    /** Notifies the tree, that children of the node were replaced. */
+    public void nodeStructureChanged(DataNode node) {
+        fireTreeStructureChanged(pathTo(node));
+    }
+
+    /** Notifies the tree, that children with given indexes were added to the node. */
+    public void nodesWereInserted(DataNode node, int[] indexes) {
+        final Object[] children = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; ++i) {
+            children[i] = node.getChildAt(indexes[i]);
+        }
+        final TreeModelEvent e = new TreeModelEvent(this, pathTo(node), indexes, children);
+        for (final TreeModelListener l : listeners.getListeners(TreeModelListener.class)) {
+            l.treeNodesInserted(e);
+        }
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    private void fireTreeStructureChanged(TreePath path) {
+        final TreeModelEvent e = new TreeModelEvent(this, path);
+        for (final TreeModelListener l : listeners.getListeners(TreeModelListener.class)) {
+            l.treeStructureChanged(e);
+        }
+    }
+}
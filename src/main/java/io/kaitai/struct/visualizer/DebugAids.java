@@ -2,21 +2,27 @@ package io.kaitai.struct.visualizer;
 
 import io.kaitai.struct.KaitaiStruct;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DebugAids {
-    private Map<String, Integer> attrStart;
-    private Map<String, Integer> attrEnd;
-    private Map<String, ArrayList<Integer>> arrStart;
-    private Map<String, ArrayList<Integer>> arrEnd;
+    private Map<String, ? extends Number> attrStart;
+    private Map<String, ? extends Number> attrEnd;
+    private Map<String, ? extends List<? extends Number>> arrStart;
+    private Map<String, ? extends List<? extends Number>> arrEnd;
+    /** Lazily built primitive copies of {@link #arrStart}. */
+    private final Map<String, Positions> arrStartIndex = new HashMap<>();
+    /** Lazily built primitive copies of {@link #arrEnd}. */
+    private final Map<String, Positions> arrEndIndex = new HashMap<>();
 
     private DebugAids(
-            Map<String, Integer> attrStart,
-            Map<String, Integer> attrEnd,
-            Map<String, ArrayList<Integer>> arrStart,
-            Map<String, ArrayList<Integer>> arrEnd
+            Map<String, ? extends Number> attrStart,
+            Map<String, ? extends Number> attrEnd,
+            Map<String, ? extends List<? extends Number>> arrStart,
+            Map<String, ? extends List<? extends Number>> arrEnd
     ) {
         this.attrStart = attrStart;
         this.attrEnd = attrEnd;
@@ -24,37 +30,86 @@ public class DebugAids {
         this.arrEnd = arrEnd;
     }
 
-    public Integer getStart(String attrName) {
-        return attrStart.get(attrName);
+    /** Start position of the attribute, or -1 if it is unknown. */
+    public long getStart(String attrName) {
+        return StructMetadata.pos(attrStart, attrName);
     }
 
-    public Integer getEnd(String attrName) {
-        return attrEnd.get(attrName);
+    /** End position of the attribute (exclusive), or -1 if it is unknown. */
+    public long getEnd(String attrName) {
+        return StructMetadata.pos(attrEnd, attrName);
     }
 
-    public Integer getStart(String attrName, int idx) {
-        ArrayList<Integer> positions = arrStart.get(attrName);
-        return (positions != null) ? positions.get(idx) : null;
+    public long getStart(String attrName, int idx) {
+        return position(index(arrStartIndex, arrStart, attrName), idx);
     }
 
-    public Integer getEnd(String attrName, int idx) {
-        ArrayList<Integer> positions = arrEnd.get(attrName);
-        return (positions != null) ? positions.get(idx) : null;
+    public long getEnd(String attrName, int idx) {
+        return position(index(arrEndIndex, arrEnd, attrName), idx);
     }
 
-    public static DebugAids fromStruct(KaitaiStruct struct) throws NoSuchFieldException, IllegalAccessException {
-        Class<?> ksyClass = struct.getClass();
+    private static long position(Positions positions, int idx) {
+        if (positions == null || idx < 0 || idx >= positions.size || positions.unknown.get(idx)) {
+            return -1;
+        }
+        return positions.values[idx] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns primitive copy of positions of elements of the array attribute. The copy
+     * is built on first access and, if the list has grown since (while the struct is
+     * parsed), only the new elements are copied; lists of a struct being parsed are safe
+     * to read, see {@link StructMetadata#sharePositions}. Boxed lists belong to the struct
+     * and are read by others, so they are kept; the copy costs 4 bytes per element.
+     */
+    private synchronized Positions index(Map<String, Positions> cache, Map<String, ? extends List<? extends Number>> source, String attrName) {
+        final List<? extends Number> list = source.get(attrName);
+        if (list == null) return null;
+
+        Positions result = cache.get(attrName);
+        if (result == null) {
+            result = new Positions();
+            cache.put(attrName, result);
+        }
+        final int size = list.size();
+        if (result.size < size) {
+            if (result.values.length < size) {
+                result.values = Arrays.copyOf(result.values, Math.max(size, result.values.length * 2));
+            }
+            for (int i = result.size; i < size; ++i) {
+                // Generated code stores positions as int, see StructMetadata.pos
+                final long pos = StructMetadata.pos(list.get(i));
+                if (pos < 0) {
+                    result.unknown.set(i);
+                }
+                result.values[i] = (int) pos;
+            }
+            result.size = size;
+        }
+        return result;
+    }
 
-        Field fAttrStart = ksyClass.getDeclaredField("_attrStart");
-        Field fAttrEnd = ksyClass.getDeclaredField("_attrEnd");
-        Field fArrStart = ksyClass.getDeclaredField("_arrStart");
-        Field fArrEnd = ksyClass.getDeclaredField("_arrEnd");
+    public static DebugAids fromStruct(KaitaiStruct struct) throws NoSuchFieldException {
+        final StructMetadata meta = StructMetadata.of(struct.getClass());
+        if (!meta.hasDebugInfo()) {
+            throw new NoSuchFieldException(struct.getClass() + " has no position info");
+        }
 
         return new DebugAids(
-                (Map<String, Integer>) fAttrStart.get(struct),
-                (Map<String, Integer>) fAttrEnd.get(struct),
-                (Map<String, ArrayList<Integer>>) fArrStart.get(struct),
-                (Map<String, ArrayList<Integer>>) fArrEnd.get(struct)
+                meta.attrStart(struct),
+                meta.attrEnd(struct),
+                meta.arrStart(struct),
+                meta.arrEnd(struct)
         );
     }
+
+    /**
+     * Positions of elements of one array attribute as unsigned {@code int}s. Every
+     * {@code int} is a valid position, so unknown ones are marked separately.
+     */
+    private static class Positions {
+        private int[] values = new int[0];
+        private final BitSet unknown = new BitSet();
+        private int size;
+    }
 }
@@ -0,0 +1,190 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStruct;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shows two files, parsed with the same spec, side by side with the list of
+ * fields, that differ. Selecting a changed field selects it in both files.
+ */
+public class DiffWindow extends JFrame {
+    /** Values longer than that are truncated in the list of changes. */
+    private static final int MAX_VALUE_CHARS = 40;
+
+    private final VisualizerPanel left;
+    private final VisualizerPanel right;
+    private final DefaultListModel<StructDiff.Change> changes = new DefaultListModel<>();
+    private final JList<StructDiff.Change> list = new JList<>(changes);
+    private final JLabel status = new JLabel("Parsing...");
+
+    /** Parsed structs; accessed only from the event dispatch thread. */
+    private KaitaiStruct leftStruct;
+    private KaitaiStruct rightStruct;
+
+    public DiffWindow(String leftFileName, String rightFileName) throws Exception {
+        super(MainWindow.APP_NAME + " v" + MainWindow.VERSION + ": "
+            + new File(leftFileName).getName() + " vs " + new File(rightFileName).getName());
+        left = new VisualizerPanel();
+        right = new VisualizerPanel();
+
+        // Tree above hex view in each half
+        left.getSplitPane().setOrientation(JSplitPane.VERTICAL_SPLIT);
+        right.getSplitPane().setOrientation(JSplitPane.VERTICAL_SPLIT);
+        final JSplitPane files = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, left.getSplitPane(), right.getSplitPane());
+        files.setResizeWeight(0.5);
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new ChangeRenderer());
+        list.addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting()) return;
+                final StructDiff.Change change = list.getSelectedValue();
+                if (change != null) {
+                    left.jumpTo(change.left());
+                    right.jumpTo(change.right());
+                }
+            }
+        });
+        final JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(new JScrollPane(list), BorderLayout.CENTER);
+        status.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        bottom.add(status, BorderLayout.SOUTH);
+
+        final JSplitPane main = new JSplitPane(JSplitPane.VERTICAL_SPLIT, files, bottom);
+        main.setResizeWeight(0.75);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close(left);
+                close(right);
+            }
+        });
+        getContentPane().add(main);
+        pack();
+        setVisible(true);
+
+        left.addParseListener(new VisualizerPanel.ParseListener() {
+            @Override
+            public void parsed(KaitaiStruct struct, Throwable error) {
+                leftStruct = struct;
+                compareIfParsed();
+            }
+        });
+        right.addParseListener(new VisualizerPanel.ParseListener() {
+            @Override
+            public void parsed(KaitaiStruct struct, Throwable error) {
+                rightStruct = struct;
+                compareIfParsed();
+            }
+        });
+    }
+
+    /** Compiles the spec once and parses both files with it. */
+    public void loadAll(String ksyFileName, String leftFileName, String rightFileName) throws Exception {
+        final Class<?> ksyClass = VisualizerPanel.loadKSY(ksyFileName, left.getMetrics());
+        left.loadAll(leftFileName, ksyClass);
+        right.loadAll(rightFileName, ksyClass);
+    }
+
+    private void compareIfParsed() {
+        if (leftStruct == null || rightStruct == null) return;
+
+        status.setText("Comparing...");
+        final KaitaiStruct l = leftStruct;
+        final KaitaiStruct r = rightStruct;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                final StructDiff diff = new StructDiff();
+                final List<StructDiff.Change> result = diff.compare(l, r);
+                final long millis = (System.nanoTime() - start) / 1000000;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        changes.clear();
+                        for (final StructDiff.Change c : result) {
+                            changes.addElement(c);
+                        }
+                        status.setText(result.size() + " changed fields, "
+                            + diff.skipped() + " equal structs skipped, " + millis + " ms");
+                    }
+                });
+            }
+        }, "kaitai-diff");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Releases the file of the panel; the other panel is closed even if this one fails. */
+    private static void close(VisualizerPanel panel) {
+        try {
+            panel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Shows path, both values and both positions of the changed field. */
+    private static class ChangeRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused) {
+            final StructDiff.Change c = (StructDiff.Change) value;
+            final StringBuilder sb = new StringBuilder(c.left().toString());
+            sb.append(": ");
+            appendValue(sb, c.leftValue());
+            sb.append(" -> ");
+            appendValue(sb, c.rightValue());
+            sb.append("  @");
+            appendPos(sb, c.left().start());
+            sb.append(" / ");
+            appendPos(sb, c.right().start());
+            return super.getListCellRendererComponent(list, sb.toString(), index, selected, focused);
+        }
+
+        private static void appendValue(StringBuilder sb, Object value) {
+            if (value == null) {
+                sb.append("[absent]");
+            } else if (value instanceof byte[]) {
+                sb.append('[').append(((byte[]) value).length).append(" bytes]");
+            } else if (value instanceof List) {
+                sb.append('[').append(((List<?>) value).size()).append(" entries]");
+            } else if (value instanceof KaitaiStruct) {
+                sb.append(value.getClass().getSimpleName());
+            } else {
+                final String text = value.toString();
+                sb.append(text.length() > MAX_VALUE_CHARS ? text.substring(0, MAX_VALUE_CHARS) + "..." : text);
+            }
+        }
+
+        private static void appendPos(StringBuilder sb, long pos) {
+            if (pos >= 0) {
+                sb.append("0x").append(Long.toHexString(pos));
+            } else {
+                sb.append('?');
+            }
+        }
+    }
+}
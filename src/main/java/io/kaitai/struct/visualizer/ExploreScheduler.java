@@ -0,0 +1,275 @@
+package io.kaitai.struct.visualizer;
+
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calculates children of {@link DataNode}s on a bounded pool of background threads.
+ *
+ * <ul>
+ *   <li>repeated requests for the same node are coalesced into one task</li>
+ *   <li>tasks for collapsed subtrees are cancelled; running ones are interrupted,
+ *       which stops waiting for lazy instances (see {@link InstanceEvaluator})</li>
+ *   <li>pending tasks for nodes, scrolled out of view, are cancelled (see {@link #retain})</li>
+ *   <li>failed tasks show the error as the only child of the node</li>
+ *   <li>the most recent requests run first, and the selected node is run before all others</li>
+ *   <li>results are attached to the tree model in batches, at most once per frame</li>
+ *   <li>children of one node are never calculated by two threads at once: a task, that
+ *       was cancelled while running, is waited for by the next exploration of its node</li>
+ *   <li>navigation to a deep node explores nodes on the way in background and continues
+ *       in callbacks (see {@link #whenExplored})</li>
+ * </ul>
+ *
+ * All public methods must be called from the event dispatch thread.
+ */
+public class ExploreScheduler {
+    /** Delay between calculation of children and their appearance in the tree. */
+    private static final int FRAME_MILLIS = 16;
+    /** Priority boost for the node, selected by user. */
+    private static final long URGENT = Long.MAX_VALUE / 2;
+
+    private final DataTreeModel model;
+    private final Metrics metrics;
+    private final ThreadPoolExecutor executor;
+    /** Pending and running tasks; guarded by {@code this}. */
+    private final Map<DataNode, Task> tasks = new HashMap<>();
+    /** Finished tasks, waiting to be attached to the model. */
+    private final Queue<Task> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Timer flushTimer;
+
+    public ExploreScheduler(DataTreeModel model, Metrics metrics) {
+        this(model, metrics, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public ExploreScheduler(DataTreeModel model, Metrics metrics, int threads) {
+        this.model = model;
+        this.metrics = metrics;
+        this.executor = new ThreadPoolExecutor(
+            threads, threads,
+            0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(),
+            new DaemonThreadFactory()
+        );
+        this.flushTimer = new Timer(FRAME_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        flushTimer.setRepeats(false);
+    }
+
+    /** Schedules calculation of children of the node, if it wasn't explored yet. */
+    public synchronized void explore(DataNode node) {
+        if (node.isExplored() || tasks.containsKey(node)) return;
+
+        final Task task = new Task(node, sequence.incrementAndGet());
+        tasks.put(node, task);
+        executor.execute(task);
+    }
+
+    /**
+     * Calls the callback when children of the node are attached to the model, or right
+     * away, if the node is already explored. Exploration of the node is run before all
+     * other pending tasks. Callback is not called, if exploration is cancelled. Used to
+     * navigate to a node deep in the tree without blocking the event dispatch thread.
+     */
+    public void whenExplored(DataNode node, Runnable callback) {
+        synchronized (this) {
+            if (!node.isExplored()) {
+                Task task = tasks.get(node);
+                if (task == null) {
+                    task = new Task(node, URGENT + sequence.incrementAndGet());
+                    tasks.put(node, task);
+                    executor.execute(task);
+                } else {
+                    prioritize(node);
+                }
+                task.callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /** Moves pending exploration of the node (if any) before all other pending tasks. */
+    public synchronized void prioritize(DataNode node) {
+        final Task task = tasks.get(node);
+        // If task was already started, it is not in the queue anymore
+        if (task != null && task.priority < URGENT && executor.remove(task)) {
+            task.priority = URGENT + sequence.incrementAndGet();
+            executor.execute(task);
+        }
+    }
+
+    /** Cancels exploration of the node and all its descendants. */
+    public synchronized void cancel(DataNode node) {
+        final Iterator<Task> it = tasks.values().iterator();
+        while (it.hasNext()) {
+            final Task task = it.next();
+            if (task.node.isDescendantOf(node)) {
+                task.cancel();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels pending explorations of nodes, which are not in the set, e.g. because their
+     * placeholders were scrolled out of view; such nodes are explored again, when shown.
+     * Running tasks and tasks, awaited by {@link #whenExplored}, are kept.
+     */
+    public synchronized void retain(Set<DataNode> nodes) {
+        final Iterator<Task> it = tasks.values().iterator();
+        while (it.hasNext()) {
+            final Task task = it.next();
+            if (!nodes.contains(task.node) && task.callbacks.isEmpty() && executor.remove(task)) {
+                task.cancelled = true;
+                it.remove();
+            }
+        }
+    }
+
+    /** Cancels all pending tasks and stops background threads. */
+    public synchronized void shutdown() {
+        for (final Task task : tasks.values()) {
+            task.cancel();
+        }
+        tasks.clear();
+        executor.shutdownNow();
+    }
+
+    /** Attaches children of all finished tasks to the model in one go. */
+    private void flush() {
+        flushScheduled.set(false);
+        final List<Task> batch = new ArrayList<>();
+        final List<Runnable> callbacks = new ArrayList<>();
+        synchronized (this) {
+            Task task;
+            while ((task = finished.poll()) != null) {
+                if (task.cancelled) continue;
+                tasks.remove(task.node);
+                batch.add(task);
+                callbacks.addAll(task.callbacks);
+            }
+        }
+        for (final Task task : batch) {
+            if (task.error != null) {
+                task.error.printStackTrace();
+                // Replace the placeholder, so the node does not look like it is still loading
+                task.node.setChildren(Collections.singletonList(task.node.errorChild(task.error)));
+            } else {
+                task.node.setChildren(task.children);
+            }
+            model.nodeStructureChanged(task.node);
+        }
+        for (final Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Calculates children of the node, waiting until other calculation of the same
+     * node (by a task, cancelled while running) finishes.
+     */
+    private static List<DataNode> computeChildren(DataNode node) throws Exception {
+        synchronized (node) {
+            return node.computeChildren();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushTimer.restart();
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        private final DataNode node;
+        /** Tasks with bigger priority run first. */
+        private volatile long priority;
+        private volatile boolean cancelled;
+        private List<DataNode> children;
+        private Exception error;
+        /** Called after the children are attached; guarded by the scheduler. */
+        private final List<Runnable> callbacks = new ArrayList<>();
+        /** Thread, that runs the task; guarded by {@code this}. */
+        private Thread runner;
+
+        Task(DataNode node, long priority) {
+            this.node = node;
+            this.priority = priority;
+        }
+
+        /** Cancels the task, interrupting it if it is already running. */
+        void cancel() {
+            cancelled = true;
+            if (!executor.remove(this)) {
+                synchronized (this) {
+                    if (runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            final long start = metrics.start();
+            try {
+                children = computeChildren(node);
+                metrics.add(Metrics.NODES, children.size());
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                // Do not leak interruption of cancelled task into the next one
+                Thread.interrupted();
+            }
+            metrics.stop(Metrics.EXPLORE, start);
+            finished.add(this);
+            scheduleFlush();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return Long.compare(other.priority, priority);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "kaitai-explore-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
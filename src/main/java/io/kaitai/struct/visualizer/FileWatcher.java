@@ -0,0 +1,135 @@
+package io.kaitai.struct.visualizer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the data file and the spec with all its imports and reports their
+ * changes. Editors often write a file in several steps, so events are reported
+ * only after files stay unchanged for a short time.
+ *
+ * Listener is called in the watcher thread, so it can do long work, like
+ * recompilation, without blocking the UI.
+ */
+public class FileWatcher implements Closeable {
+    /** Files must stay unchanged that long before a change is reported. */
+    private static final int SETTLE_MILLIS = 300;
+
+    /** Receiver of changes. */
+    public interface Listener {
+        /** Called when the data file changed, but the spec did not. */
+        void dataChanged();
+        /** Called when the spec or any of its imports changed (the data file may have changed too). */
+        void specChanged();
+    }
+
+    private final File dataFile;
+    private final String ksyFileName;
+    private final Listener listener;
+    private final WatchService service;
+    /** Directories, already registered in {@link #service}. */
+    private final Set<Path> watchedDirs = new HashSet<>();
+    private final Thread thread;
+    /** Spec and its imports; updated after every spec change, as imports could change. */
+    private Set<File> specFiles;
+
+    public FileWatcher(String dataFileName, String ksyFileName, Listener listener) throws IOException {
+        this.dataFile = new File(dataFileName).getCanonicalFile();
+        this.ksyFileName = ksyFileName;
+        this.listener = listener;
+        this.service = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "kaitai-watch");
+        thread.setDaemon(true);
+
+        watchDir(dataFile);
+        updateSpecFiles();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final Set<File> changed = new HashSet<>();
+                collect(service.take(), changed);
+                // Wait until writes settle down
+                WatchKey key;
+                while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+
+                boolean specChanged = false;
+                for (final File spec : specFiles) {
+                    specChanged |= changed.contains(spec);
+                }
+                if (specChanged) {
+                    updateSpecFiles();
+                    listener.specChanged();
+                } else if (changed.contains(dataFile)) {
+                    listener.dataChanged();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Adds files, reported by the key, to the set and rearms the key. */
+    private static void collect(WatchKey key, Set<File> changed) {
+        final Path dir = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+            changed.add(dir.resolve((Path) event.context()).toFile());
+        }
+        key.reset();
+    }
+
+    private void updateSpecFiles() throws IOException {
+        try {
+            specFiles = CompiledSpecCache.specFiles(ksyFileName);
+        } catch (IOException | RuntimeException e) {
+            // Spec is broken, keep watching files, that were known before
+            if (specFiles == null) throw e;
+            System.err.println("Unable to read imports of " + ksyFileName + ": " + e);
+            return;
+        }
+        for (final File spec : specFiles) {
+            watchDir(spec);
+        }
+    }
+
+    private void watchDir(File file) throws IOException {
+        final Path dir = file.getParentFile().toPath();
+        if (watchedDirs.add(dir)) {
+            dir.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY
+            );
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs `_read` of the top-level struct in a background thread and populates
+ * the root of the tree with top-level fields as soon as they are completely parsed.
+ * Fields are considered complete when their end position is stored in {@code _attrEnd}:
+ * position maps of the top-level struct are replaced with synchronized ones, which pass
+ * names of completed fields from the parsing thread (see {@link StructMetadata#sharePositions}).
+ *
+ * When parsing finishes (successfully or not), all remaining attributes, including
+ * lazy instances and partially parsed fields, are added to the root, so everything
+ * parsed so far stays browsable even after a parse error.
+ */
+public class IncrementalParser {
+    /** Interval between updates of the tree while parsing is in progress. */
+    private static final int REFRESH_MILLIS = 100;
+    /** Resolution of the progress bar. */
+    private static final int PROGRESS_MAX = 1000;
+
+    private final KaitaiStruct struct;
+    private final DataNode root;
+    private final DataTreeModel model;
+    private final JProgressBar progress;
+    private final Metrics metrics;
+    /** Names of attributes, already added to the root. */
+    private final Set<String> shown = new HashSet<>();
+    /** Names of attributes, which end positions were stored by the parsing thread. */
+    private final Queue<String> completed = new ConcurrentLinkedQueue<>();
+    /** Size of the stream; read before parsing starts. */
+    private final long size;
+    /** Shown after progress for files, which positions wrap around; empty for others. */
+    private final String warning;
+    private final Timer timer;
+
+    /** Called in the event dispatch thread when parsing finishes. */
+    private Runnable onFinished;
+    private FieldsListener onFieldsParsed;
+
+    /** Receiver of top-level attributes, which are completely parsed while the rest is still being parsed. */
+    public interface FieldsListener {
+        /**
+         * Called in the event dispatch thread when attributes are added to the root.
+         * @param names Names of the attributes
+         */
+        void fieldsParsed(List<String> names);
+    }
+
+    private volatile boolean finished;
+    /** Set when results of parsing are not needed anymore; accessed only from the event dispatch thread. */
+    private boolean stopped;
+    private volatile Throwable error;
+    /** Maximum end position of completed attributes; accessed only from the event dispatch thread. */
+    private long parsedEnd;
+
+    public IncrementalParser(KaitaiStruct struct, DataNode root, DataTreeModel model, JProgressBar progress, Metrics metrics) {
+        this.struct = struct;
+        this.root = root;
+        this.model = model;
+        this.progress = progress;
+        this.metrics = metrics;
+        this.size = struct._io().size();
+        this.warning = MappedKaitaiStream.hasExactPositions(struct._io())
+            ? ""
+            : " (file is 4 GiB or bigger: positions of fields wrap around at 4 GiB)";
+        this.timer = new Timer(REFRESH_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+    }
+
+    /** Starts parsing. Must be called from the event dispatch thread. */
+    public void start() {
+        root.appendChildren(Collections.<DataNode>emptyList());
+        model.nodeStructureChanged(root);
+
+        progress.setMaximum(PROGRESS_MAX);
+        progress.setValue(0);
+        progress.setString("Parsing...");
+        progress.setStringPainted(true);
+        progress.setVisible(true);
+        timer.start();
+
+        StructMetadata.of(struct.getClass()).sharePositions(struct, completed);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parse();
+            }
+        }, "kaitai-parse");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Sets callback, called in the event dispatch thread when parsing finishes. Must be set before {@link #start}. */
+    public void setOnFinished(Runnable onFinished) {
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * Stops updating the tree, for example, when the file is reloaded. Parsing itself
+     * can't be interrupted: it continues in background until its stream is closed
+     * (see {@link MappedKaitaiStream#close}), and its results are ignored.
+     * Must be called from the event dispatch thread.
+     */
+    public void stop() {
+        stopped = true;
+        timer.stop();
+    }
+
+    /** Sets receiver of attributes, parsed before parsing finishes. Must be set before {@link #start}. */
+    public void setOnFieldsParsed(FieldsListener listener) {
+        this.onFieldsParsed = listener;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /** Error, occurred while parsing, or {@code null}. */
+    public Throwable error() {
+        return error;
+    }
+
+    private void parse() {
+        final KaitaiStream io = struct._io();
+        final long start = metrics.start();
+        try {
+            final Method readMethod = struct.getClass().getMethod("_read");
+            // Lazy instances, calculated while exploring tree, lock the stream too
+            final ReentrantLock lock = StreamLocks.of(io);
+            lock.lock();
+            try {
+                readMethod.invoke(struct);
+            } finally {
+                lock.unlock();
+            }
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        } catch (Exception e) {
+            error = e;
+        }
+        metrics.stop(Metrics.READ, start);
+        metrics.add(Metrics.BYTES_PARSED, MappedKaitaiStream.position(io));
+        finished = true;
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped) return;
+                timer.stop();
+                update();
+                if (onFinished != null) {
+                    onFinished.run();
+                }
+            }
+        });
+    }
+
+    /** Adds newly parsed fields to the root and updates progress. */
+    private void update() {
+        if (stopped) return;
+        final boolean done = finished;
+        final KaitaiStream io = struct._io();
+        final Set<String> complete = new HashSet<>();
+        String name;
+        while ((name = completed.poll()) != null) {
+            complete.add(name);
+        }
+        // Position of other streams can't be read safely from this thread while parsing
+        final long pos = done || io instanceof MappedKaitaiStream ? MappedKaitaiStream.position(io) : lastEnd(complete);
+
+        final List<StructMetadata.Attribute> added = new ArrayList<>();
+        for (final StructMetadata.Attribute attr : StructMetadata.of(struct.getClass()).attributes(struct)) {
+            if (shown.contains(attr.name())) continue;
+            if (done || complete.contains(attr.name())) {
+                added.add(attr);
+            }
+        }
+
+        final List<DataNode> children = new ArrayList<>();
+        if (done && error != null) {
+            children.add(new DataNode(1, String.valueOf(error), "[error at " + pos + "]"));
+        }
+        try {
+            children.addAll(root.createChildren(added));
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+        }
+        final List<String> names = new ArrayList<>(added.size());
+        for (final StructMetadata.Attribute attr : added) {
+            shown.add(attr.name());
+            names.add(attr.name());
+        }
+        if (!done && !names.isEmpty() && onFieldsParsed != null) {
+            onFieldsParsed.fieldsParsed(names);
+        }
+        if (!children.isEmpty()) {
+            final int first = root.getChildCount();
+            root.appendChildren(children);
+            final int[] indexes = new int[children.size()];
+            for (int i = 0; i < indexes.length; ++i) {
+                indexes[i] = first + i;
+            }
+            model.nodesWereInserted(root, indexes);
+        }
+
+        if (done) {
+            progress.setValue(PROGRESS_MAX);
+            progress.setString((error != null ? "Parse error at " + pos + ": " + error : "Parsed " + pos + " bytes") + warning);
+        } else {
+            progress.setValue(size > 0 ? (int) (pos * PROGRESS_MAX / size) : 0);
+            progress.setString("Parsing... " + pos + " / " + size + " bytes" + warning);
+        }
+    }
+
+    /** Returns the maximum end position of the completed attributes, which is parsed for sure. */
+    private long lastEnd(Set<String> complete) {
+        final Map<String, ? extends Number> attrEnd = StructMetadata.of(struct.getClass()).attrEnd(struct);
+        for (final String name : complete) {
+            parsedEnd = Math.max(parsedEnd, StructMetadata.pos(attrEnd, name));
+        }
+        return parsedEnd;
+    }
+}
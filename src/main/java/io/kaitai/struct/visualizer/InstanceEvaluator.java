@@ -0,0 +1,252 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStruct;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Calculates lazy instances under time and memory budget. Instance is calculated
+ * in a separate thread while the caller waits for it; if the instance takes too
+ * long or allocates too much, the caller stops waiting and gets a failure.
+ *
+ * Java has no safe way to stop a thread, so an instance, that exceeded the budget,
+ * is only interrupted and keeps running in background. If it finishes eventually,
+ * its value is stored in the struct as usual and will be shown when the node
+ * is explored next time.
+ *
+ * Instance is calculated under the lock of the file (see {@link StreamLocks#ofFile}), and
+ * the budget starts only when the lock is acquired. If the lock is not acquired in time
+ * (for example, the file is being parsed), the caller gets a failure, which is not
+ * remembered, so the instance is tried again on the next expansion. An instance, that
+ * exceeded the budget, holds the lock until it finishes: meanwhile all other instances
+ * of the same file fail this way, because the stream could not be shared with it.
+ *
+ * Other failures are remembered per struct, so a broken instance is not calculated again
+ * on every expansion. Budget is configured by system properties:
+ * {@code kaitai.instance.timeout} (milliseconds) and {@code kaitai.instance.maxBytes}
+ * (bytes, allocated by the calculating thread).
+ */
+public class InstanceEvaluator {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    /** Interval between checks of the budget. */
+    private static final int POLL_MILLIS = 10;
+
+    private static final InstanceEvaluator SHARED = new InstanceEvaluator(
+        Long.getLong("kaitai.instance.timeout", DEFAULT_TIMEOUT_MILLIS),
+        Long.getLong("kaitai.instance.maxBytes", DEFAULT_MAX_BYTES)
+    );
+
+    /** Result of calculation of an instance. */
+    public static class Outcome {
+        private final Object value;
+        private final String failure;
+        private final long nanos;
+
+        Outcome(Object value, String failure, long nanos) {
+            this.value = value;
+            this.failure = failure;
+            this.nanos = nanos;
+        }
+
+        /** Calculated value; {@code null} if calculation failed or instance has no value. */
+        public Object value() {
+            return value;
+        }
+
+        /** Human-readable reason of the failure, or {@code null} if value was calculated. */
+        public String failure() {
+            return failure;
+        }
+
+        /** Time, spent calculating the instance (so far, if it is still running). */
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    private final long timeoutMillis;
+    private final long maxBytes;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+    /** Allocation counter of the current JVM, or {@code null} if not supported. */
+    private final com.sun.management.ThreadMXBean allocations;
+    /** Running and failed calculations by struct and instance name; guarded by {@code this}. */
+    private final Map<KaitaiStruct, Map<String, Evaluation>> evaluations = new WeakHashMap<>();
+
+    public InstanceEvaluator(long timeoutMillis, long maxBytes) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxBytes = maxBytes;
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+         && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            allocations = (com.sun.management.ThreadMXBean) bean;
+        } else {
+            allocations = null;
+        }
+    }
+
+    /** Evaluator, configured by system properties and shared by all tree nodes. */
+    public static InstanceEvaluator shared() {
+        return SHARED;
+    }
+
+    /**
+     * Calculates the instance, waiting no longer than the budget allows.
+     * @param struct Struct, that has the instance
+     * @param method Accessor of the instance
+     * @throws InterruptedException if the caller was interrupted (e.g. node was collapsed);
+     *         calculation continues and could be awaited again
+     */
+    public Outcome evaluate(KaitaiStruct struct, Method method) throws InterruptedException {
+        final Evaluation e;
+        synchronized (this) {
+            Map<String, Evaluation> byName = evaluations.get(struct);
+            if (byName == null) {
+                byName = new HashMap<>();
+                evaluations.put(struct, byName);
+            }
+            Evaluation existing = byName.get(method.getName());
+            if (existing == null) {
+                existing = new Evaluation(struct, method);
+                existing.future = executor.submit(existing);
+                byName.put(method.getName(), existing);
+            }
+            e = existing;
+        }
+        if (e.failure != null) {
+            return new Outcome(null, e.failure, e.nanos());
+        }
+
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            try {
+                final Object value = e.future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                // Value is memoized by the struct itself
+                forget(struct, method);
+                return new Outcome(value, null, e.nanos());
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof StreamBusyException) {
+                    forget(struct, method);
+                    return new Outcome(null, "[file is busy (being parsed or calculating another instance), expand again later]", 0);
+                }
+                final Throwable cause = ex.getCause() instanceof InvocationTargetException
+                    ? ex.getCause().getCause()
+                    : ex.getCause();
+                return fail(e, "[error: " + cause + "]");
+            } catch (TimeoutException ex) {
+                // Time of waiting for the stream lock is not counted
+                if (e.nanos() > timeoutNanos) {
+                    return fail(e, "[timed out after " + timeoutMillis + " ms]");
+                }
+                if (e.allocated() > maxBytes) {
+                    return fail(e, "[allocated more than " + maxBytes + " bytes]");
+                }
+            }
+        }
+    }
+
+    private synchronized void forget(KaitaiStruct struct, Method method) {
+        final Map<String, Evaluation> byName = evaluations.get(struct);
+        if (byName != null) {
+            byName.remove(method.getName());
+        }
+    }
+
+    private Outcome fail(Evaluation e, String failure) {
+        e.failure = failure;
+        final Thread thread = e.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        return new Outcome(null, failure, e.nanos());
+    }
+
+    /** Calculation of one instance of one struct. */
+    private class Evaluation implements Callable<Object> {
+        /**
+         * Struct, that has the instance; cleared when calculation finishes, so
+         * remembered failure does not prevent struct from garbage collection.
+         */
+        private KaitaiStruct struct;
+        private final Method method;
+        private Future<Object> future;
+        /** Thread, that calculates the instance, while calculation is running. */
+        private volatile Thread thread;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile long startAllocated;
+        /** Reason of the failure; failed calculations are not repeated. */
+        private volatile String failure;
+
+        Evaluation(KaitaiStruct struct, Method method) {
+            this.struct = struct;
+            this.method = method;
+        }
+
+        @Override
+        public Object call() throws Exception {
+            // Instances seek in the stream of their struct or of its parents, so they
+            // must not be calculated concurrently with other readers of the same file
+            final ReentrantLock lock = StreamLocks.ofFile(struct);
+            if (!lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new StreamBusyException();
+            }
+            try {
+                final Thread current = Thread.currentThread();
+                startAllocated = allocations != null ? allocations.getThreadAllocatedBytes(current.getId()) : 0;
+                startNanos = System.nanoTime();
+                thread = current;
+                return method.invoke(struct);
+            } finally {
+                thread = null;
+                struct = null;
+                endNanos = System.nanoTime();
+                lock.unlock();
+            }
+        }
+
+        long nanos() {
+            if (startNanos == 0) return 0;
+            return (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        }
+
+        /** Bytes, allocated by the calculation so far. */
+        long allocated() {
+            final Thread t = thread;
+            if (allocations == null || t == null) return 0;
+            return allocations.getThreadAllocatedBytes(t.getId()) - startAllocated;
+        }
+    }
+
+    /** Thrown when the lock of the stream was not acquired in time. */
+    private static class StreamBusyException extends Exception {
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "kaitai-instance-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
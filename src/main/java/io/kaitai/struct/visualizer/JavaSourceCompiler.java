@@ -0,0 +1,111 @@
+package io.kaitai.struct.visualizer;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles Java source, generated from .ksy, in memory. Bytecode of all produced
+ * classes (including nested ones) is collected by own file manager, so it can be
+ * stored in {@link CompiledSpecCache} and loaded with {@link CompiledSpecCache.Entry#load}.
+ */
+public class JavaSourceCompiler {
+    private JavaSourceCompiler() {}
+
+    /**
+     * Compiles the source of one top-level class. Classes, it refers to, are looked up
+     * in the class path of the current JVM.
+     * @param className Fully qualified name of the top-level class
+     * @param javaSrc Source code of the class
+     * @return Map from binary class name to its bytecode
+     * @throws IllegalArgumentException If the source does not compile
+     * @throws IllegalStateException If the JVM has no Java compiler (it is run from a JRE)
+     */
+    public static Map<String, byte[]> compile(String className, String javaSrc) throws IOException {
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("Java compiler is not available, run the visualizer with JDK");
+        }
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final Map<String, byte[]> classes = new HashMap<>();
+        try (JavaFileManager files = new MemoryFileManager(javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8), classes)) {
+            final JavaFileObject source = new Source(className, javaSrc);
+            final Boolean success = javac.getTask(null, files, diagnostics, null, null, Collections.singletonList(source)).call();
+            if (!Boolean.TRUE.equals(success)) {
+                final StringBuilder sb = new StringBuilder("Unable to compile ").append(className).append(':');
+                for (final Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                    sb.append('\n').append(d.getLineNumber()).append(": ").append(d.getMessage(null));
+                }
+                throw new IllegalArgumentException(sb.toString());
+            }
+        }
+        return classes;
+    }
+
+    /** Source of the class, held in memory. */
+    private static class Source extends SimpleJavaFileObject {
+        private final String code;
+
+        Source(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /** Bytecode of the class, stored into the map when javac closes the stream. */
+    private static class ClassOutput extends SimpleJavaFileObject {
+        private final String className;
+        private final Map<String, byte[]> classes;
+
+        ClassOutput(String className, Map<String, byte[]> classes) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+            this.classes = classes;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    classes.put(className, toByteArray());
+                }
+            };
+        }
+    }
+
+    /** File manager, that reads sources and class path as usual, but writes classes into memory. */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes;
+
+        MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classes) {
+            super(fileManager);
+            this.classes = classes;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new ClassOutput(className, classes);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes parsed struct as JSON or NDJSON without building the tree. Output is
+ * written while the object graph is walked, through a fixed-size buffer, so memory
+ * used by the export does not depend on the size of the struct.
+ *
+ * <p>In JSON format every field is written as an object with {@code start} and
+ * {@code end} offsets (if known) and {@code value}, which is an object of such fields
+ * for structs and an array of them for lists:</p>
+ * <pre>{"start":0,"end":8,"value":{"magic":{"start":0,"end":4,"value":"4d5a0000"}, ...}}</pre>
+ *
+ * <p>In NDJSON format one line is written for each field with a primitive value:</p>
+ * <pre>{"path":"header.magic","start":0,"end":4,"value":"4d5a0000"}</pre>
+ *
+ * Offsets are written only for fields of the top-level stream; positions in substreams
+ * are relative to the substream and could not be mapped to the file.
+ */
+public class JsonExporter {
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Bytes, encoded at once; multiple of 3, so base64 chunks can be concatenated. */
+    private static final int BYTES_CHUNK = 3 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final String USAGE = "Usage: --export <file.ksy> <data file> [--ndjson] [--bytes=hex|base64|none]"
+        + " [--max-bytes=N] [--instances] [--output=file]";
+
+    /** Representation of byte arrays. */
+    public enum BytesFormat { HEX, BASE64, NONE }
+
+    private final Writer out;
+    private final boolean ndjson;
+    private final BytesFormat bytesFormat;
+    /** Byte arrays longer than that are truncated; -1 for no limit. */
+    private final int maxBytes;
+    /** Calculate lazy instances, which were not calculated during parsing. */
+    private final boolean instances;
+    /** Reused buffer for encoding of byte arrays. */
+    private final char[] chars = new char[BYTES_CHUNK * 2];
+    /** Path of the current field, used in NDJSON format. */
+    private final StringBuilder path = new StringBuilder();
+    /** Structs, being written; instances could refer back to them, e.g. via `_parent`. */
+    private final Set<KaitaiStruct> writing = Collections.newSetFromMap(new IdentityHashMap<KaitaiStruct, Boolean>());
+    private KaitaiStream rootIo;
+
+    public JsonExporter(Writer out, boolean ndjson, BytesFormat bytesFormat, int maxBytes, boolean instances) {
+        this.out = out;
+        this.ndjson = ndjson;
+        this.bytesFormat = bytesFormat;
+        this.maxBytes = maxBytes;
+        this.instances = instances;
+    }
+
+    /** Writes the struct and flushes the output. */
+    public void export(KaitaiStruct root) throws IOException {
+        rootIo = root._io();
+        if (!MappedKaitaiStream.hasExactPositions(rootIo)) {
+            System.err.println("Warning: input is 4 GiB or bigger, positions of fields wrap around at 4 GiB");
+        }
+        if (ndjson) {
+            writeStructLines(root);
+        } else {
+            out.write("{\"start\":0,\"end\":");
+            out.write(Long.toString(MappedKaitaiStream.position(rootIo)));
+            out.write(",\"value\":");
+            writeStruct(root);
+            out.write("}\n");
+        }
+        out.flush();
+    }
+
+    private Object value(StructMetadata.Attribute attr, KaitaiStruct struct) {
+        final Object value = attr.get(struct);
+        if (value != null || !instances) return value;
+        try {
+            // Lazy instance; parsing thread may still read the stream, so lock it like InstanceEvaluator does
+            final ReentrantLock lock = StreamLocks.ofFile(struct);
+            lock.lock();
+            try {
+                return attr.method().invoke(struct);
+            } finally {
+                lock.unlock();
+            }
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        } catch (ReflectiveOperationException e) {
+            return e;
+        }
+    }
+
+    private void writeStruct(KaitaiStruct struct) throws IOException {
+        final StructMetadata meta = StructMetadata.of(struct.getClass());
+        // Opaque types and classes without position info have no position maps
+        final boolean top = struct._io() == rootIo && meta.hasDebugInfo();
+        final Map<String, ? extends Number> starts = top ? meta.attrStart(struct) : null;
+        final Map<String, ? extends Number> ends = top ? meta.attrEnd(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrStarts = top ? meta.arrStart(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrEnds = top ? meta.arrEnd(struct) : null;
+        if (!writing.add(struct)) {
+            out.write("null");
+            return;
+        }
+
+        out.write('{');
+        boolean first = true;
+        for (final StructMetadata.Attribute attr : meta.attributes(struct)) {
+            final Object value = value(attr, struct);
+            if (value == null) continue;
+
+            if (!first) out.write(',');
+            first = false;
+            final String name = attr.name();
+            writeString(name);
+            out.write(':');
+            writeField(
+                value,
+                StructMetadata.pos(starts, name),
+                StructMetadata.pos(ends, name),
+                arrStarts != null ? arrStarts.get(name) : null,
+                arrEnds != null ? arrEnds.get(name) : null
+            );
+        }
+        out.write('}');
+        writing.remove(struct);
+    }
+
+    private void writeField(Object value, long start, long end, List<? extends Number> arrStarts, List<? extends Number> arrEnds) throws IOException {
+        out.write('{');
+        writePos(start, end);
+        if (value instanceof byte[]) {
+            writeSize((byte[]) value);
+        }
+        out.write("\"value\":");
+        if (value instanceof KaitaiStruct) {
+            writeStruct((KaitaiStruct) value);
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            out.write('[');
+            for (int i = 0; i < list.size(); ++i) {
+                if (i > 0) out.write(',');
+                writeField(list.get(i), StructMetadata.pos(arrStarts, i), StructMetadata.pos(arrEnds, i), null, null);
+            }
+            out.write(']');
+        } else {
+            writePrimitive(value);
+        }
+        out.write('}');
+    }
+
+    private void writeStructLines(KaitaiStruct struct) throws IOException {
+        final StructMetadata meta = StructMetadata.of(struct.getClass());
+        // Opaque types and classes without position info have no position maps
+        final boolean top = struct._io() == rootIo && meta.hasDebugInfo();
+        final Map<String, ? extends Number> starts = top ? meta.attrStart(struct) : null;
+        final Map<String, ? extends Number> ends = top ? meta.attrEnd(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrStarts = top ? meta.arrStart(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrEnds = top ? meta.arrEnd(struct) : null;
+        if (!writing.add(struct)) return;
+
+        for (final StructMetadata.Attribute attr : meta.attributes(struct)) {
+            final Object value = value(attr, struct);
+            if (value == null) continue;
+
+            final String name = attr.name();
+            final int length = path.length();
+            if (length > 0) path.append('.');
+            path.append(name);
+            writeLines(
+                value,
+                StructMetadata.pos(starts, name),
+                StructMetadata.pos(ends, name),
+                arrStarts != null ? arrStarts.get(name) : null,
+                arrEnds != null ? arrEnds.get(name) : null
+            );
+            path.setLength(length);
+        }
+        writing.remove(struct);
+    }
+
+    private void writeLines(Object value, long start, long end, List<? extends Number> arrStarts, List<? extends Number> arrEnds) throws IOException {
+        if (value instanceof KaitaiStruct) {
+            writeStructLines((KaitaiStruct) value);
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); ++i) {
+                final int length = path.length();
+                path.append('[').append(i).append(']');
+                writeLines(list.get(i), StructMetadata.pos(arrStarts, i), StructMetadata.pos(arrEnds, i), null, null);
+                path.setLength(length);
+            }
+        } else {
+            out.write("{\"path\":");
+            writeString(path);
+            out.write(',');
+            writePos(start, end);
+            if (value instanceof byte[]) {
+                writeSize((byte[]) value);
+            }
+            out.write("\"value\":");
+            writePrimitive(value);
+            out.write("}\n");
+        }
+    }
+
+    /** Writes offsets (if known), followed by a comma. */
+    private void writePos(long start, long end) throws IOException {
+        if (start < 0 || end < 0) return;
+        out.write("\"start\":");
+        out.write(Long.toString(start));
+        out.write(",\"end\":");
+        out.write(Long.toString(end));
+        out.write(',');
+    }
+
+    /** Writes size of the truncated byte array, followed by a comma. */
+    private void writeSize(byte[] bytes) throws IOException {
+        if (maxBytes < 0 || bytes.length <= maxBytes) return;
+        out.write("\"size\":");
+        out.write(Integer.toString(bytes.length));
+        out.write(",\"truncated\":true,");
+    }
+
+    private void writePrimitive(Object value) throws IOException {
+        if (value instanceof byte[]) {
+            writeBytes((byte[]) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            final double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                writeString(value.toString());
+            } else {
+                out.write(value.toString());
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>) value).name());
+        } else if (value instanceof Throwable) {
+            out.write("{\"error\":");
+            writeString(value.toString());
+            out.write('}');
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytesFormat == BytesFormat.NONE) {
+            out.write("null");
+            return;
+        }
+        final int length = maxBytes >= 0 ? Math.min(bytes.length, maxBytes) : bytes.length;
+        out.write('"');
+        for (int from = 0; from < length; from += BYTES_CHUNK) {
+            final int to = Math.min(length, from + BYTES_CHUNK);
+            out.write(chars, 0, bytesFormat == BytesFormat.HEX ? hex(bytes, from, to) : base64(bytes, from, to));
+        }
+        out.write('"');
+    }
+
+    private int hex(byte[] bytes, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; ++i) {
+            chars[n++] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[n++] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return n;
+    }
+
+    private int base64(byte[] bytes, int from, int to) {
+        int n = 0;
+        int i = from;
+        for (; i + 2 < to; i += 3) {
+            final int v = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[n++] = BASE64_DIGITS[v >>> 18];
+            chars[n++] = BASE64_DIGITS[(v >>> 12) & 0x3f];
+            chars[n++] = BASE64_DIGITS[(v >>> 6) & 0x3f];
+            chars[n++] = BASE64_DIGITS[v & 0x3f];
+        }
+        // Only the last chunk could have a tail
+        if (i < to) {
+            final int v = (bytes[i] & 0xff) << 16 | (i + 1 < to ? (bytes[i + 1] & 0xff) << 8 : 0);
+            chars[n++] = BASE64_DIGITS[v >>> 18];
+            chars[n++] = BASE64_DIGITS[(v >>> 12) & 0x3f];
+            chars[n++] = i + 1 < to ? BASE64_DIGITS[(v >>> 6) & 0x3f] : '=';
+            chars[n++] = '=';
+        }
+        return n;
+    }
+
+    private void writeString(CharSequence s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write("\\u00");
+                        out.write(HEX_DIGITS[c >> 4]);
+                        out.write(HEX_DIGITS[c & 0xf]);
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Entry point of the export mode.
+     * @param args {@code <file.ksy> <data file> [--ndjson] [--bytes=hex|base64|none]
+     *        [--max-bytes=N] [--instances] [--output=file]}
+     * @return Process exit code: 0 if file was parsed successfully, 1 otherwise
+     */
+    public static int execute(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        boolean ndjson = false;
+        BytesFormat bytes = BytesFormat.HEX;
+        int maxBytes = -1;
+        boolean instances = false;
+        String output = null;
+        for (int i = 2; i < args.length; ++i) {
+            final String arg = args[i];
+            if (arg.equals("--ndjson")) {
+                ndjson = true;
+            } else if (arg.startsWith("--bytes=")) {
+                try {
+                    bytes = BytesFormat.valueOf(arg.substring(8).toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid bytes format: " + arg.substring(8));
+                    System.err.println(USAGE);
+                    return 2;
+                }
+            } else if (arg.startsWith("--max-bytes=")) {
+                try {
+                    maxBytes = Integer.parseInt(arg.substring(12));
+                } catch (NumberFormatException e) {
+                    maxBytes = -1;
+                }
+                if (maxBytes < 0) {
+                    System.err.println("Invalid maximum count of bytes: " + arg.substring(12));
+                    System.err.println(USAGE);
+                    return 2;
+                }
+            } else if (arg.equals("--instances")) {
+                instances = true;
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring(9);
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.err.println(USAGE);
+                return 2;
+            }
+        }
+
+        final Class<?> ksyClass = VisualizerPanel.loadKSY(args[0], new Metrics());
+        final KaitaiStruct struct = VisualizerPanel.construct(ksyClass, args[1]);
+        Throwable error = null;
+        try {
+            ksyClass.getMethod("_read").invoke(struct);
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        }
+
+        // Everything, parsed before the error, is exported anyway
+        final OutputStream os = output != null ? new FileOutputStream(output) : System.out;
+        final Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            new JsonExporter(out, ndjson, bytes, maxBytes, instances).export(struct);
+        } finally {
+            if (output != null) {
+                out.close();
+            }
+        }
+        if (error != null) {
+            System.err.println("Parse error at " + MappedKaitaiStream.position(struct._io()) + ": " + error);
+            return 1;
+        }
+        return 0;
+    }
+}
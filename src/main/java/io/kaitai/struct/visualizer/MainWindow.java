@@ -1,26 +1,92 @@
 package io.kaitai.struct.visualizer;
 
+import io.kaitai.struct.KaitaiStruct;
+
 import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class MainWindow extends JFrame {
-    private static final String APP_NAME = "Kaitai Struct Visualizer";
-    private static final String VERSION = "0.8";
+    static final String APP_NAME = "Kaitai Struct Visualizer";
+    static final String VERSION = "0.8";
 
     private VisualizerPanel vis;
 
     public MainWindow() throws IOException {
+        this(new Metrics());
+    }
+
+    public MainWindow(Metrics metrics) throws IOException {
         super(APP_NAME + " v" + VERSION);
-        vis = new VisualizerPanel();
+        vis = new VisualizerPanel(metrics);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                try {
+                    vis.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
         getContentPane().add(vis.getSplitPane());
+        getContentPane().add(new MetricsPanel(vis.getMetrics()), BorderLayout.SOUTH);
         pack();
         setVisible(true);
     }
 
+    /**
+     * Exits as soon as the parsed file is painted. Used by the training run of the
+     * {@code appcds} profile, so the archive gets the classes, needed to show a file.
+     */
+    private void exitAfterPaint() {
+        vis.addParseListener(new VisualizerPanel.ParseListener() {
+            @Override
+            public void parsed(KaitaiStruct struct, Throwable error) {
+                // Let the tree attach the last parsed fields first
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        final JRootPane root = getRootPane();
+                        root.paintImmediately(0, 0, root.getWidth(), root.getHeight());
+                        System.exit(error == null ? 0 : 1);
+                    }
+                });
+            }
+        });
+    }
+
     public static void main(final String arg[]) throws Exception {
+        if (arg.length > 0 && arg[0].equals("--batch")) {
+            System.exit(BatchRunner.execute(Arrays.copyOfRange(arg, 1, arg.length)));
+        }
+        if (arg.length > 0 && arg[0].equals("--export")) {
+            System.exit(JsonExporter.execute(Arrays.copyOfRange(arg, 1, arg.length)));
+        }
+        if (arg.length == 4 && arg[0].equals("--diff")) {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+            final DiffWindow diff = new DiffWindow(arg[2], arg[3]);
+            diff.loadAll(arg[1], arg[2], arg[3]);
+            return;
+        }
+        final boolean watch = arg.length > 0 && arg[0].equals("--watch");
+        final String[] files = watch ? Arrays.copyOfRange(arg, 1, arg.length) : arg;
+        // Compile the spec and map the data while Swing is initialized
+        final Metrics metrics = new Metrics();
+        final StartupPipeline startup = new StartupPipeline(files[1], files[0], metrics);
         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        MainWindow mw = new MainWindow();
-        mw.vis.loadAll(arg[0], arg[1]);
+        MainWindow mw = new MainWindow(metrics);
+        startup.reached(Metrics.STARTUP_WINDOW);
+        if (Boolean.getBoolean("kaitai.startup.exitAfterPaint")) {
+            mw.exitAfterPaint();
+        }
+        mw.vis.loadAll(files[0], files[1], startup);
+        if (watch) {
+            mw.vis.watch();
+        }
     }
 }
@@ -0,0 +1,176 @@
+package io.kaitai.struct.visualizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tv.porst.jhexview.IDataChangedListener;
+import tv.porst.jhexview.IDataProvider;
+
+/**
+ * Read-only data provider for {@link tv.porst.jhexview.JHexView}, which reads
+ * only requested pages directly from a memory-mapped file, so the whole file
+ * is never copied to the heap.
+ *
+ * Provider works in one of three modes:
+ * <ul>
+ *   <li>over segments, already mapped by {@link MappedKaitaiStream}</li>
+ *   <li>over an existing buffer, usually the one already mapped by
+ *   {@link io.kaitai.struct.ByteBufferKaitaiStream}</li>
+ *   <li>over a file channel, mapping it by windows of {@link #WINDOW_SIZE} bytes
+ *   on demand; this mode is used for other streams</li>
+ * </ul>
+ */
+public class MappedDataProvider implements IDataProvider, Closeable {
+    /** Size of one mapped window in the file channel mode. */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    /** Maximum count of simultaneously mapped windows in the file channel mode. */
+    private static final int MAX_WINDOWS = 4;
+
+    /** Stream with all data, or {@code null} in other modes. */
+    private final MappedKaitaiStream stream;
+    /** Buffer with all data, or {@code null} in other modes. */
+    private final ByteBuffer buffer;
+    /** Channel to map windows from, or {@code null} in other modes. */
+    private final FileChannel channel;
+    private final long size;
+    /** Recently used windows, indexed by window number. */
+    private final Map<Long, ByteBuffer> windows = new LinkedHashMap<Long, ByteBuffer>(MAX_WINDOWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            return size() > MAX_WINDOWS;
+        }
+    };
+
+    /**
+     * Creates provider over the whole content of the buffer (from 0 to its limit).
+     * Position and limit of the passed buffer are not changed by the provider.
+     */
+    public MappedDataProvider(ByteBuffer buffer) {
+        this.stream = null;
+        this.buffer = buffer.duplicate();
+        this.channel = null;
+        this.size = buffer.limit();
+    }
+
+    /**
+     * Creates provider over segments, mapped by the stream. Position of the stream
+     * is not changed by the provider; closing the provider does not close the stream.
+     */
+    public MappedDataProvider(MappedKaitaiStream stream) {
+        this.stream = stream;
+        this.buffer = null;
+        this.channel = null;
+        this.size = stream.size();
+    }
+
+    /** Creates provider which maps windows of the file on demand. */
+    public MappedDataProvider(String fileName) throws IOException {
+        this.stream = null;
+        this.buffer = null;
+        this.channel = new RandomAccessFile(fileName, "r").getChannel();
+        this.size = channel.size();
+    }
+
+    /** Returns size of the data in bytes. */
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized byte[] getData(long offset, int length) {
+        final int len = (int) Math.max(0, Math.min(length, size - offset));
+        final byte[] result = new byte[len];
+        if (stream != null) {
+            // Segments of the stream could be unmapped at any moment, so bytes are copied under its lock
+            stream.read(offset, result, 0, len);
+            return result;
+        }
+        int done = 0;
+        while (done < len) {
+            final ByteBuffer view = view(offset + done);
+            final int chunk = Math.min(len - done, view.remaining());
+            view.get(result, done, chunk);
+            done += chunk;
+        }
+        return result;
+    }
+
+    /** Returns view of the data, starting at the position, up to the end of the mapped piece. */
+    private ByteBuffer view(long pos) {
+        final ByteBuffer view;
+        if (buffer != null) {
+            view = buffer.duplicate();
+            view.position((int) pos);
+        } else {
+            view = window(pos / WINDOW_SIZE).duplicate();
+            view.position((int) (pos % WINDOW_SIZE));
+        }
+        return view;
+    }
+
+    private ByteBuffer window(long index) {
+        ByteBuffer window = windows.get(index);
+        if (window == null) {
+            final long start = index * WINDOW_SIZE;
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to map window at " + start, e);
+            }
+            windows.put(index, window);
+        }
+        return window;
+    }
+
+    /**
+     * Returns size of the data, limited by {@code int}: hex view can't show data
+     * beyond 2 GiB, though the tree shows all fields with their real positions.
+     */
+    @Override
+    public int getDataLength() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasData(long start, int length) {
+        return start >= 0 && start + length <= size;
+    }
+
+    @Override
+    public boolean isEditable() {
+        return false;
+    }
+
+    @Override
+    public boolean keepTrying() {
+        return false;
+    }
+
+    /** Edits are ignored: data is read-only, and the hex view calls it on typing in it. */
+    @Override
+    public void setData(long offset, byte[] data) {
+    }
+
+    @Override
+    public void addListener(IDataChangedListener listener) {
+        // data never changes
+    }
+
+    @Override
+    public void removeListener(IDataChangedListener listener) {
+        // data never changes
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        windows.clear();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
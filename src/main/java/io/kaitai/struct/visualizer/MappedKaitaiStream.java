@@ -0,0 +1,391 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-only stream over a file, memory-mapped by segments of {@code 2^segmentBits}
+ * bytes, so files bigger than 2 GiB can be parsed without copying them to the heap.
+ * {@link ByteBufferKaitaiStream} maps the whole file into one buffer and is limited
+ * by its {@code int} capacity.
+ *
+ * Position of the stream is {@code long}, but the runtime API reports it as {@code int}
+ * ({@link #pos()}), and generated code stores it as {@code Integer} in position info.
+ * So {@link #pos()} returns the lower 32 bits of the position and {@link #seek(int)}
+ * treats its argument as unsigned: this keeps {@code int} arithmetic of generated
+ * code correct for files up to 4 GiB; for bigger files positions wrap around, which is
+ * checked by {@link #hasExactPositions}. Positions from position info should be read
+ * by {@link StructMetadata#pos}, which does the same unsigned conversion, and the
+ * position of a stream by {@link #position(KaitaiStream)}.
+ *
+ * Segments are unmapped by {@link #close} right away rather than by garbage collection,
+ * so reloading a file does not accumulate mappings. Buffers over the segments are never
+ * handed out: other threads copy bytes with {@link #read(long, byte[], int, int)}, which
+ * {@link #close} waits for, since touching unmapped memory crashes the JVM.
+ */
+public class MappedKaitaiStream extends KaitaiStream {
+    /** Streams of this size and bigger have wrapped positions in position info. */
+    public static final long MAX_EXACT_SIZE = 1L << 32;
+    /** Segments of 1 GiB by default. */
+    private static final int DEFAULT_SEGMENT_BITS = 30;
+    /**
+     * Writes {@link #pos} with ordered stores: they are as cheap as plain ones, but let
+     * other threads read the position safely (to show progress of parsing).
+     */
+    private static final AtomicLongFieldUpdater<MappedKaitaiStream> POS =
+        AtomicLongFieldUpdater.newUpdater(MappedKaitaiStream.class, "pos");
+
+    private final FileChannel channel;
+    private final int segmentBits;
+    private final long segmentMask;
+    /** Mapped segments in big-endian byte order; all, except the last one, are full. */
+    private final ByteBuffer[] big;
+    /** The same segments in little-endian byte order. */
+    private final ByteBuffer[] little;
+    /** Buffer for values, which cross the boundary of segments. */
+    private final ByteBuffer scratch = ByteBuffer.allocate(8);
+    private final long size;
+    /** Count of bytes, that can be read; set to 0 by {@link #close} to stop readers. */
+    private volatile long limit;
+    /** Current position; written only through {@link #POS}. */
+    private volatile long pos;
+    /** Held for reading by copies from other threads and for writing while segments are unmapped. */
+    private final ReentrantReadWriteLock mapping = new ReentrantReadWriteLock();
+    /** {@code true} when segments are unmapped; guarded by {@link #mapping}. */
+    private boolean closed;
+    /** Index of the value in the buffer, returned by the last {@link #prepare} call. */
+    private int index;
+
+    public MappedKaitaiStream(String fileName) throws IOException {
+        this(fileName, DEFAULT_SEGMENT_BITS);
+    }
+
+    MappedKaitaiStream(String fileName, int segmentBits) throws IOException {
+        this.channel = new RandomAccessFile(fileName, "r").getChannel();
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        this.size = channel.size();
+        this.limit = size;
+
+        final int count = (int) ((size + segmentMask) >>> segmentBits);
+        big = new ByteBuffer[count];
+        little = new ByteBuffer[count];
+        try {
+            for (int i = 0; i < count; ++i) {
+                final long start = (long) i << segmentBits;
+                big[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentMask + 1, size - start));
+                little[i] = big[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Position of the stream, which is not limited by {@code int} for streams of this class.
+     * For streams of this class it can be read from any thread, while the stream is parsed.
+     */
+    public static long position(KaitaiStream io) {
+        return io instanceof MappedKaitaiStream ? ((MappedKaitaiStream) io).pos : io.pos();
+    }
+
+    /**
+     * Returns {@code true} if position info of structs of the stream is exact: generated
+     * code stores positions as {@code int}, so for streams of 4 GiB and bigger they wrap around.
+     */
+    public static boolean hasExactPositions(KaitaiStream io) {
+        return io.size() < MAX_EXACT_SIZE;
+    }
+
+    /**
+     * Copies bytes from the given position, crossing boundaries of segments if needed.
+     * Does not change position of the stream and can be called from any thread, also
+     * while the stream is parsed or closed.
+     * @throws IndexOutOfBoundsException if the bytes are outside of the stream
+     * @throws IllegalStateException if the stream is closed
+     */
+    public void read(long start, byte[] dst, int offset, int length) {
+        if (start < 0 || length < 0 || start + length > size) {
+            throw new IndexOutOfBoundsException("range " + start + ".." + (start + length) + " is outside of 0.." + size);
+        }
+        mapping.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("stream is closed");
+            }
+            copy(start, dst, offset, length);
+        } finally {
+            mapping.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns read-only view of the bytes from {@code start} up to {@code end} or the end
+     * of the segment, which contains {@code start}, whichever is closer. Does not change
+     * position of the stream. The view is valid only while the stream is not closed, so
+     * it is used only by the reader of the stream and by {@link #read(long, byte[], int, int)}.
+     */
+    private ByteBuffer segment(long start, long end) {
+        if (start < 0 || start >= size || end <= start) {
+            throw new IndexOutOfBoundsException("range " + start + ".." + end + " is outside of 0.." + size);
+        }
+        final ByteBuffer segment = big[(int) (start >>> segmentBits)].asReadOnlyBuffer();
+        final int from = (int) (start & segmentMask);
+        segment.limit((int) Math.min(segment.limit(), from + Math.min(end, size) - start));
+        segment.position(from);
+        return segment;
+    }
+
+    /**
+     * Makes all further reads fail, waits until the current reader of the stream (which
+     * holds its {@link StreamLocks lock}) and running copies stop, and unmaps the segments.
+     * Should not be called from the event dispatch thread, because the reader could take
+     * a while to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        limit = 0;
+        final ReentrantLock lock = StreamLocks.of(this);
+        lock.lock();
+        mapping.writeLock().lock();
+        try {
+            closed = true;
+            for (int i = 0; i < big.length; ++i) {
+                if (big[i] != null) {
+                    unmap(big[i]);
+                    big[i] = null;
+                    little[i] = null;
+                }
+            }
+            channel.close();
+        } finally {
+            mapping.writeLock().unlock();
+            lock.unlock();
+        }
+    }
+
+    /** Releases the mapping right away, if the JVM allows it; otherwise it is left to garbage collection. */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            // Java 9+
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            // Java 8
+            try {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // Left to garbage collection
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to garbage collection
+        }
+    }
+
+    @Override
+    public boolean isEof() {
+        return !(pos < size || bitsLeft > 0);
+    }
+
+    /** Seeks to position, treating {@code int} as unsigned (see class description). */
+    @Override
+    public void seek(int newPos) {
+        seek(newPos & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void seek(long newPos) {
+        if (newPos < 0 || newPos > size) {
+            throw new IllegalArgumentException("position " + newPos + " is outside of 0.." + size);
+        }
+        POS.lazySet(this, newPos);
+    }
+
+    /** Returns lower 32 bits of the position (see class description). */
+    @Override
+    public int pos() {
+        return (int) pos;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public byte readS1() {
+        return prepare(1, big).get(index);
+    }
+
+    @Override
+    public short readS2be() {
+        return prepare(2, big).getShort(index);
+    }
+
+    @Override
+    public int readS4be() {
+        return prepare(4, big).getInt(index);
+    }
+
+    @Override
+    public long readS8be() {
+        return prepare(8, big).getLong(index);
+    }
+
+    @Override
+    public short readS2le() {
+        return prepare(2, little).getShort(index);
+    }
+
+    @Override
+    public int readS4le() {
+        return prepare(4, little).getInt(index);
+    }
+
+    @Override
+    public long readS8le() {
+        return prepare(8, little).getLong(index);
+    }
+
+    @Override
+    public int readU1() {
+        return readS1() & 0xff;
+    }
+
+    @Override
+    public int readU2be() {
+        return readS2be() & 0xffff;
+    }
+
+    @Override
+    public long readU4be() {
+        return readS4be() & 0xffffffffL;
+    }
+
+    @Override
+    public int readU2le() {
+        return readS2le() & 0xffff;
+    }
+
+    @Override
+    public long readU4le() {
+        return readS4le() & 0xffffffffL;
+    }
+
+    @Override
+    public float readF4be() {
+        return prepare(4, big).getFloat(index);
+    }
+
+    @Override
+    public double readF8be() {
+        return prepare(8, big).getDouble(index);
+    }
+
+    @Override
+    public float readF4le() {
+        return prepare(4, little).getFloat(index);
+    }
+
+    @Override
+    public double readF8le() {
+        return prepare(8, little).getDouble(index);
+    }
+
+    @Override
+    public byte[] readBytes(long n) {
+        if (n < 0 || n > limit - pos) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] result = new byte[toByteArrayLength(n)];
+        copy(pos, result, 0, result.length);
+        POS.lazySet(this, pos + n);
+        return result;
+    }
+
+    @Override
+    public byte[] readBytesFull() {
+        return readBytes(size - pos);
+    }
+
+    @Override
+    public byte[] readBytesTerm(int term, boolean includeTerm, boolean consumeTerm, boolean eosError) {
+        // Find the terminator segment by segment, then copy everything at once
+        long found = -1;
+        for (long p = pos; p < size && found < 0; ) {
+            final ByteBuffer segment = segment(p, size);
+            final int from = segment.position();
+            for (int i = from; i < segment.limit(); ++i) {
+                if ((segment.get(i) & 0xff) == term) {
+                    found = p + (i - from);
+                    break;
+                }
+            }
+            p += segment.remaining();
+        }
+        if (found < 0) {
+            if (eosError) {
+                throw new RuntimeException("End of stream reached, but no terminator " + term + " found");
+            }
+            return readBytesFull();
+        }
+
+        final byte[] result = readBytes(found - pos + (includeTerm ? 1 : 0));
+        POS.lazySet(this, found + (consumeTerm ? 1 : 0));
+        return result;
+    }
+
+    /**
+     * Advances position by {@code n} bytes and returns buffer with these bytes
+     * starting at {@link #index}: the segment itself, or the scratch buffer, if
+     * bytes cross the boundary of segments.
+     * @param segments Segments in the required byte order
+     */
+    private ByteBuffer prepare(int n, ByteBuffer[] segments) {
+        if (n > limit - pos) {
+            throw new BufferUnderflowException();
+        }
+        final long start = pos;
+        POS.lazySet(this, start + n);
+        final ByteBuffer segment = segments[(int) (start >>> segmentBits)];
+        final int offset = (int) (start & segmentMask);
+        if (offset + n <= segment.limit()) {
+            index = offset;
+            return segment;
+        }
+        copy(start, scratch.array(), 0, n);
+        scratch.order(segment.order());
+        index = 0;
+        return scratch;
+    }
+
+    /** Copies bytes at the given position, crossing boundaries of segments if needed. */
+    private void copy(long start, byte[] dst, int offset, int length) {
+        while (length > 0) {
+            final ByteBuffer segment = segment(start, start + length);
+            final int chunk = segment.remaining();
+            segment.get(dst, offset, chunk);
+            start += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+}
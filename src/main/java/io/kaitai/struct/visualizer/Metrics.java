@@ -0,0 +1,212 @@
+package io.kaitai.struct.visualizer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects timings of the visualizer phases and counters of processed data,
+ * so it is possible to find out, what makes loading of a file slow: the spec,
+ * the parsing or the UI.
+ *
+ * All methods are thread-safe.
+ */
+public class Metrics {
+    /** Time of compilation of .ksy into Java source. */
+    public static final String COMPILE_KSY = "compileKsy";
+    /** Time of compilation of Java source into bytecode. */
+    public static final String COMPILE_JAVA = "compileJava";
+    /** Time of the `_read` call on the top-level struct. */
+    public static final String READ = "read";
+    /** Time of loading data into hex view. */
+    public static final String HEX_LOAD = "hexLoad";
+    /** Time of calculation of children of one tree node. */
+    public static final String EXPLORE = "explore";
+    /** Time of building {@link OffsetIndex} and {@link SearchIndex} after parsing. */
+    public static final String SEARCH_INDEX = "searchIndex";
+    /** Time of one search query. */
+    public static final String SEARCH = "search";
+    /** Time of building {@link CoverageMap}. */
+    public static final String COVERAGE = "coverage";
+    /** Time of compilation of a trivial class, which loads javac while .ksy is compiled. */
+    public static final String JAVAC_WARMUP = "javacWarmup";
+    /** Time from the start of the JVM until {@code main} is called. */
+    public static final String STARTUP_JVM = "startupJvm";
+    /** Time from the start of {@code main} until the window is shown. */
+    public static final String STARTUP_WINDOW = "startupWindow";
+    /** Time from the start of {@code main} until the data file is shown in the hex view. */
+    public static final String STARTUP_DATA = "startupData";
+    /** Time from the start of {@code main} until classes of the spec are loaded. */
+    public static final String STARTUP_SPEC = "startupSpec";
+    /** Time from the start of {@code main} until the tree with the parsed file is shown. */
+    public static final String STARTUP_TREE = "startupTree";
+
+    /** Count of created tree nodes. */
+    public static final String NODES = "nodes";
+    /** Count of bytes, consumed by the top-level `_read`. */
+    public static final String BYTES_PARSED = "bytesParsed";
+    /** Count of specs, loaded from {@link CompiledSpecCache}. */
+    public static final String CACHE_HITS = "cacheHits";
+    /** Count of specs, compiled because they were not found in {@link CompiledSpecCache}. */
+    public static final String CACHE_MISSES = "cacheMisses";
+
+    /** Statistics of one measured phase. */
+    public static class Timing {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastNanos;
+
+        public synchronized long count() {
+            return count;
+        }
+
+        public synchronized long totalNanos() {
+            return totalNanos;
+        }
+
+        public synchronized long maxNanos() {
+            return maxNanos;
+        }
+
+        public synchronized long lastNanos() {
+            return lastNanos;
+        }
+
+        private synchronized void record(long nanos) {
+            ++count;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+    }
+
+    private final Map<String, Timing> timings = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    /** Returns start mark for {@link #stop}. */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records time passed since the start mark.
+     * @param name Name of the phase
+     * @param start Mark, returned by {@link #start}
+     * @return Duration of the phase in nanoseconds
+     */
+    public long stop(String name, long start) {
+        final long nanos = System.nanoTime() - start;
+        record(name, nanos);
+        return nanos;
+    }
+
+    public void record(String name, long nanos) {
+        timing(name).record(nanos);
+    }
+
+    public void add(String counter, long delta) {
+        synchronized (counters) {
+            final Long old = counters.get(counter);
+            counters.put(counter, (old != null ? old : 0L) + delta);
+        }
+    }
+
+    public Timing timing(String name) {
+        synchronized (timings) {
+            Timing t = timings.get(name);
+            if (t == null) {
+                t = new Timing();
+                timings.put(name, t);
+            }
+            return t;
+        }
+    }
+
+    /** Returns copy of all recorded timings in the order they were first recorded. */
+    public Map<String, Timing> timings() {
+        return snapshotTimings();
+    }
+
+    public long counter(String name) {
+        synchronized (counters) {
+            final Long value = counters.get(name);
+            return value != null ? value : 0L;
+        }
+    }
+
+    /** Forgets all recorded values. */
+    public void reset() {
+        synchronized (timings) {
+            timings.clear();
+        }
+        synchronized (counters) {
+            counters.clear();
+        }
+    }
+
+    /** Returns one-line human-readable summary, suitable for a status bar. */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (final Map.Entry<String, Timing> e : snapshotTimings().entrySet()) {
+            final Timing t = e.getValue();
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append(e.getKey()).append(' ');
+            if (t.count() == 1) {
+                sb.append(millis(t.totalNanos())).append(" ms");
+            } else {
+                sb.append(t.count()).append("x avg ")
+                  .append(millis(t.totalNanos() / Math.max(1, t.count()))).append(" ms, max ")
+                  .append(millis(t.maxNanos())).append(" ms");
+            }
+        }
+        for (final Map.Entry<String, Long> e : snapshotCounters().entrySet()) {
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append(e.getKey()).append(' ').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /** Writes all recorded values as a JSON object. Times are written in nanoseconds. */
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"timings\": {");
+        boolean first = true;
+        for (final Map.Entry<String, Timing> e : snapshotTimings().entrySet()) {
+            final Timing t = e.getValue();
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    \"" + e.getKey() + "\": {"
+                + "\"count\": " + t.count()
+                + ", \"totalNanos\": " + t.totalNanos()
+                + ", \"maxNanos\": " + t.maxNanos()
+                + ", \"lastNanos\": " + t.lastNanos()
+                + "}");
+        }
+        out.write("\n  },\n  \"counters\": {");
+        first = true;
+        for (final Map.Entry<String, Long> e : snapshotCounters().entrySet()) {
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("    \"" + e.getKey() + "\": " + e.getValue());
+        }
+        out.write("\n  }\n}\n");
+        out.flush();
+    }
+
+    private Map<String, Timing> snapshotTimings() {
+        synchronized (timings) {
+            return new LinkedHashMap<>(timings);
+        }
+    }
+
+    private Map<String, Long> snapshotCounters() {
+        synchronized (counters) {
+            return new LinkedHashMap<>(counters);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 1000000);
+    }
+}
@@ -0,0 +1,64 @@
+package io.kaitai.struct.visualizer;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Status bar, that shows {@link Metrics} summary and allows to export it as JSON. */
+public class MetricsPanel extends JPanel {
+    /** Interval between status bar updates. */
+    private static final int REFRESH_MILLIS = 500;
+
+    private final Metrics metrics;
+    private final JLabel label = new JLabel(" ");
+
+    public MetricsPanel(Metrics metrics) {
+        super(new BorderLayout());
+        this.metrics = metrics;
+
+        setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        add(label, BorderLayout.CENTER);
+
+        final JButton export = new JButton("Export...");
+        export.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                export();
+            }
+        });
+        add(export, BorderLayout.EAST);
+
+        new Timer(REFRESH_MILLIS, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                final String summary = MetricsPanel.this.metrics.summary();
+                label.setText(summary.isEmpty() ? " " : summary);
+            }
+        }).start();
+    }
+
+    private void export() {
+        final JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("metrics.json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(chooser.getSelectedFile()), StandardCharsets.UTF_8)) {
+            metrics.writeJson(out);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Unable to export metrics", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
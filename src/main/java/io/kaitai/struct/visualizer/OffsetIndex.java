@@ -0,0 +1,431 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reverse index from offsets in the input to the parsed fields, that cover them.
+ * Built from {@code _attrStart}/{@code _attrEnd} and {@code _arrStart}/{@code _arrEnd}
+ * of all structs. Positions in substreams are relative to the substream, so they are
+ * shifted by the start of the field, the substream was read from, if it is a plain
+ * slice of its parent stream ({@code size:} without {@code process:}); fields of other
+ * substreams are indexed without positions.
+ *
+ * Index is filled in a background thread while the file is parsed: {@link #add} indexes
+ * top-level fields as soon as they are parsed, {@link #build} indexes the rest after
+ * parsing. Structs inside the top-level fields are walked in parallel on a fork/join
+ * pool. Fields are published in snapshots of growing size, so the index can be
+ * queried while it is still being built. The same walk fills {@link SearchIndex}, if
+ * it is given, so the fields are created only once.
+ * Query takes {@code O(log n + d)}, where {@code d} is the nesting depth of fields.
+ */
+public class OffsetIndex {
+    /** Count of fields, collected before the first snapshot is published. */
+    private static final int FIRST_SNAPSHOT = 4096;
+    /** Elements of lists, walked by one task. */
+    private static final int LIST_CHUNK = 4096;
+
+    /**
+     * Field of a parsed struct or an element of a list. Fields are linked to their
+     * owners, so the path from the root struct to the field can be restored.
+     */
+    public static class Field {
+        private final Field owner;
+        private final String attrName;
+        private final int arrayIdx;
+        private final long start;
+        private final long end;
+        private final int depth;
+
+        Field(Field owner, String attrName, int arrayIdx, long start, long end) {
+            this.owner = owner;
+            this.attrName = attrName;
+            this.arrayIdx = arrayIdx;
+            this.start = start;
+            this.end = end;
+            this.depth = owner != null ? owner.depth + 1 : 0;
+        }
+
+        /** Field, that contains this one, or {@code null} for fields of the top-level struct. */
+        public Field owner() {
+            return owner;
+        }
+
+        /** Name of the attribute, or {@code null} for list elements. */
+        public String attrName() {
+            return attrName;
+        }
+
+        /** Index in the list for list elements, -1 otherwise. */
+        public int arrayIdx() {
+            return arrayIdx;
+        }
+
+        public long start() {
+            return start;
+        }
+
+        /** Position right after the field (exclusive). */
+        public long end() {
+            return end;
+        }
+
+        /** Path from the top-level struct to this field, outermost first. */
+        public List<Field> path() {
+            final List<Field> result = new ArrayList<>(depth + 1);
+            for (Field f = this; f != null; f = f.owner) {
+                result.add(f);
+            }
+            Collections.reverse(result);
+            return result;
+        }
+
+        /** Dotted path to the field, for example {@code header.entries[3].size}. */
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            for (final Field f : path()) {
+                if (f.attrName != null) {
+                    if (sb.length() > 0) sb.append('.');
+                    sb.append(f.attrName);
+                } else {
+                    sb.append('[').append(f.arrayIdx).append(']');
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Immutable sorted view of the collected fields. */
+    private static class Snapshot {
+        private final long[] starts;
+        private final long[] ends;
+        /** Index of the nearest enclosing interval, or -1. */
+        private final int[] parents;
+        private final Field[] fields;
+
+        Snapshot(List<Field> collected) {
+            fields = collected.toArray(new Field[0]);
+            // Outer fields go before inner ones with the same start
+            Arrays.sort(fields, new Comparator<Field>() {
+                @Override
+                public int compare(Field a, Field b) {
+                    if (a.start != b.start) return Long.compare(a.start, b.start);
+                    if (a.end != b.end) return Long.compare(b.end, a.end);
+                    return Integer.compare(a.depth, b.depth);
+                }
+            });
+            final int n = fields.length;
+            starts = new long[n];
+            ends = new long[n];
+            parents = new int[n];
+
+            final int[] stack = new int[n];
+            int top = 0;
+            for (int i = 0; i < n; ++i) {
+                starts[i] = fields[i].start;
+                ends[i] = fields[i].end;
+                while (top > 0 && ends[stack[top - 1]] < ends[i]) {
+                    --top;
+                }
+                parents[i] = top > 0 ? stack[top - 1] : -1;
+                stack[top++] = i;
+            }
+        }
+
+        Field find(long offset) {
+            // Last interval that starts at or before the offset
+            int lo = 0;
+            int hi = starts.length - 1;
+            int i = -1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (starts[mid] <= offset) {
+                    i = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            // Climb to the innermost interval, that also ends after the offset
+            while (i >= 0 && ends[i] <= offset) {
+                i = parents[i];
+            }
+            return i >= 0 ? fields[i] : null;
+        }
+    }
+
+    /** Receiver of all fields with their values, or {@code null}. */
+    private final SearchIndex search;
+    private final ForkJoinPool pool;
+    private volatile Snapshot snapshot = new Snapshot(Collections.<Field>emptyList());
+    private volatile boolean complete;
+    /** Fields with their values, collected by walking tasks and not yet added to the indexes. */
+    private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+    /** Fields, collected so far; accessed only from the indexing thread. */
+    private final List<Field> collected = new ArrayList<>();
+    /** Names of already indexed attributes of the top-level struct; accessed only from the indexing thread. */
+    private final Set<String> indexed = new HashSet<>();
+    private int nextSnapshot = FIRST_SNAPSHOT;
+
+    public OffsetIndex() {
+        this(null);
+    }
+
+    /** @param search Index to fill with all fields and their values, or {@code null} */
+    public OffsetIndex(SearchIndex search) {
+        this(search, ForkJoinPool.commonPool());
+    }
+
+    public OffsetIndex(SearchIndex search, ForkJoinPool pool) {
+        this.search = search;
+        this.pool = pool;
+    }
+
+    /**
+     * Finds the innermost field, that covers the offset.
+     * @return Field or {@code null}, if no (already indexed) field covers the offset
+     */
+    public Field find(long offset) {
+        return snapshot.find(offset);
+    }
+
+    /** Returns {@code true} if all fields are already indexed. */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Indexes the given attributes of the top-level struct, which are completely parsed,
+     * while the rest of the struct is still being parsed. Must be called from the same
+     * thread as {@link #build}.
+     */
+    public void add(KaitaiStruct root, Collection<String> names) {
+        walk(root, names);
+        // Small index is cheap to publish, so fields appear as soon as they are parsed
+        if (collected.size() < FIRST_SNAPSHOT) {
+            snapshot = new Snapshot(collected);
+        }
+    }
+
+    /**
+     * Walks the graph of parsed structs and collects positions of all their fields,
+     * which were not indexed by {@link #add} yet, then completes the search index.
+     * The search index is completed even if the walk fails, so searches do not wait
+     * for it forever. Lazy instances are not calculated: only already known values
+     * are indexed. Should be called in a background thread after parsing is finished.
+     */
+    public void build(KaitaiStruct root) {
+        Throwable error = null;
+        try {
+            walk(root, null);
+            snapshot = new Snapshot(collected);
+            complete = true;
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            if (search != null) {
+                search.complete(error);
+            }
+        }
+    }
+
+    /**
+     * Collects fields of the given attributes of the top-level struct on the calling
+     * thread, and fields of all structs inside them on the pool: every struct (and every
+     * chunk of a long list) is walked by a separate task. Collected fields are then
+     * added to the indexes on the calling thread.
+     * @param names Names of attributes of the top-level struct to index, or {@code null} for all
+     */
+    private void walk(KaitaiStruct root, Collection<String> names) {
+        final Chunk chunk = new Chunk();
+        final List<RecursiveAction> subtasks = new ArrayList<>();
+        walk(root, null, 0, names, chunk, subtasks);
+        chunks.add(chunk);
+        try {
+            if (!subtasks.isEmpty()) {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(subtasks);
+                    }
+                });
+            }
+        } finally {
+            // Fields, collected before a failure, are still indexed
+            for (Chunk c = chunks.poll(); c != null; c = chunks.poll()) {
+                for (int i = 0; i < c.fields.size(); ++i) {
+                    final Field field = c.fields.get(i);
+                    if (field.start >= 0 && field.end >= 0) {
+                        collected.add(field);
+                    }
+                    if (search != null) {
+                        search.add(field, c.values.get(i));
+                    }
+                }
+            }
+            if (collected.size() >= nextSnapshot) {
+                snapshot = new Snapshot(collected);
+                nextSnapshot = collected.size() * 2;
+            }
+        }
+    }
+
+    /**
+     * Collects fields of one struct. Nested structs and long lists are left to subtasks,
+     * added to the list.
+     * @param owner Field, that holds the struct, or {@code null} for the top-level struct
+     * @param base Offset of the stream of the struct in the top-level stream, or -1 if unknown
+     * @param names Names of attributes of the top-level struct to index, or {@code null} for all
+     */
+    private void walk(KaitaiStruct struct, Field owner, long base, Collection<String> names, Chunk chunk, List<RecursiveAction> subtasks) {
+        final StructMetadata meta = StructMetadata.of(struct.getClass());
+        final boolean positions = base >= 0 && meta.hasDebugInfo();
+        if (!positions && search == null) return;
+
+        final Map<String, ? extends Number> attrStart = positions ? meta.attrStart(struct) : null;
+        final Map<String, ? extends Number> attrEnd = positions ? meta.attrEnd(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrStart = positions ? meta.arrStart(struct) : null;
+        final Map<String, ? extends List<? extends Number>> arrEnd = positions ? meta.arrEnd(struct) : null;
+
+        for (final StructMetadata.Attribute attr : meta.attributes()) {
+            final Object value = attr.get(struct);
+            if (value == null) continue;
+
+            final String name = attr.name();
+            if (owner == null && (names != null && !names.contains(name) || !indexed.add(name))) continue;
+
+            // Fields without position are still needed to restore paths to nested fields
+            final Field field = new Field(owner, name, -1,
+                offset(base, StructMetadata.pos(attrStart, name)), offset(base, StructMetadata.pos(attrEnd, name)));
+            chunk.add(field, value);
+
+            final boolean processed = meta.isProcessed(name);
+            if (value instanceof KaitaiStruct) {
+                final KaitaiStruct child = (KaitaiStruct) value;
+                subtasks.add(new StructTask(child, field, base(struct, base, child, field, processed)));
+            } else if (value instanceof ArrayList) {
+                final ArrayList<?> list = (ArrayList<?>) value;
+                final List<? extends Number> starts = arrStart != null ? arrStart.get(name) : null;
+                final List<? extends Number> ends = arrEnd != null ? arrEnd.get(name) : null;
+                for (int i = 0; i < list.size(); i += LIST_CHUNK) {
+                    subtasks.add(new ListTask(struct, base, processed, list, field, starts, ends, i, Math.min(list.size(), i + LIST_CHUNK)));
+                }
+            }
+        }
+    }
+
+    /** Shifts position in a stream by the offset of the stream, keeping unknown positions. */
+    private static long offset(long base, long pos) {
+        return base < 0 || pos < 0 ? -1 : base + pos;
+    }
+
+    /**
+     * Returns offset of the stream of the child struct in the top-level stream, or -1
+     * if it is unknown. Substream, created for a field with {@code size:}, is a copy of
+     * the bytes of the field, unless they were processed (decompressed, decrypted, ...),
+     * so its offset is the start of the field.
+     * @param field Field, that holds the child struct, with positions in the top-level stream
+     * @param processed {@code true} if bytes of the field were processed before parsing
+     */
+    private static long base(KaitaiStruct parent, long parentBase, KaitaiStruct child, Field field, boolean processed) {
+        if (child._io() == parent._io()) return parentBase;
+        if (processed || field.start < 0 || field.end < 0 || child._io() == null) return -1;
+        return child._io().size() == field.end - field.start ? field.start : -1;
+    }
+
+    /** Fields with their values, collected by one walking task. */
+    private static class Chunk {
+        private final List<Field> fields = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+
+        void add(Field field, Object value) {
+            fields.add(field);
+            values.add(value);
+        }
+    }
+
+    /** Collects fields of one struct and forks tasks for nested structs and long lists. */
+    private class StructTask extends RecursiveAction {
+        private final KaitaiStruct struct;
+        private final Field owner;
+        private final long base;
+
+        StructTask(KaitaiStruct struct, Field owner, long base) {
+            this.struct = struct;
+            this.owner = owner;
+            this.base = base;
+        }
+
+        @Override
+        protected void compute() {
+            final Chunk chunk = new Chunk();
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            walk(struct, owner, base, null, chunk, subtasks);
+            chunks.add(chunk);
+            invokeAll(subtasks);
+        }
+    }
+
+    /**
+     * Collects fields of a range of elements of a list. Elements, which are structs,
+     * are walked by this task too, so there is no task per element.
+     */
+    private class ListTask extends RecursiveAction {
+        /** Struct, that holds the list. */
+        private final KaitaiStruct struct;
+        private final long base;
+        private final boolean processed;
+        private final ArrayList<?> list;
+        private final Field owner;
+        private final List<? extends Number> starts;
+        private final List<? extends Number> ends;
+        private final int from;
+        private final int to;
+
+        ListTask(KaitaiStruct struct, long base, boolean processed, ArrayList<?> list, Field owner,
+                 List<? extends Number> starts, List<? extends Number> ends, int from, int to) {
+            this.struct = struct;
+            this.base = base;
+            this.processed = processed;
+            this.list = list;
+            this.owner = owner;
+            this.starts = starts;
+            this.ends = ends;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final Chunk chunk = new Chunk();
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                final Object element = list.get(i);
+                final Field el = new Field(owner, null, i,
+                    offset(base, StructMetadata.pos(starts, i)), offset(base, StructMetadata.pos(ends, i)));
+                chunk.add(el, element);
+                if (element instanceof KaitaiStruct) {
+                    final KaitaiStruct child = (KaitaiStruct) element;
+                    walk(child, el, base(struct, base, child, el, processed), null, chunk, subtasks);
+                }
+            }
+            chunks.add(chunk);
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package io.kaitai.struct.visualizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of all fields of the parsed structs with their values, which allows to
+ * find fields by name or value without exploring the tree.
+ *
+ * Index is filled by {@link OffsetIndex} in the same walk over the parsed structs,
+ * so both indexes share their {@link OffsetIndex.Field}s. Fields of substreams, which
+ * could not be mapped to the file, are indexed too, but without positions. Only values,
+ * already known after parsing, are indexed: lazy instances are not calculated.
+ * Searches run on a fork/join pool.
+ */
+public class SearchIndex {
+    /** Entries, checked by one task while searching. */
+    private static final int SEARCH_CHUNK = 8192;
+    /** Search stops after finding that many results. */
+    public static final int MAX_RESULTS = 10000;
+
+    /** Condition on indexed fields. */
+    public interface Query {
+        boolean matches(OffsetIndex.Field field, Object value);
+    }
+
+    /** Receiver of search results. Called from pool threads, possibly concurrently. */
+    public interface Listener {
+        void found(List<Result> results);
+    }
+
+    /** Field, matched by a query. */
+    public static class Result {
+        private final OffsetIndex.Field field;
+        private final Object value;
+
+        Result(OffsetIndex.Field field, Object value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public OffsetIndex.Field field() {
+            return field;
+        }
+
+        public Object value() {
+            return value;
+        }
+
+        /** Dotted path to the field, for example {@code header.entries[3].size}. */
+        public String path() {
+            return field.toString();
+        }
+    }
+
+    /** Handle of a running search. */
+    public static class Search {
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicInteger found = new AtomicInteger();
+
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /** Count of results, reported so far. */
+        public int found() {
+            return Math.min(found.get(), MAX_RESULTS);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final CountDownLatch built = new CountDownLatch(1);
+    /** Filled only by the indexing thread; read by searches after {@link #built}. */
+    private OffsetIndex.Field[] fields = new OffsetIndex.Field[16];
+    private Object[] values = new Object[16];
+    private volatile int size;
+    /** Why the index is incomplete, or {@code null}; written before {@link #built} is released. */
+    private volatile Throwable error;
+
+    public SearchIndex() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SearchIndex(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /** Adds the field with its value; called by {@link OffsetIndex} from the indexing thread. */
+    void add(OffsetIndex.Field field, Object value) {
+        final int n = size;
+        if (n == fields.length) {
+            fields = Arrays.copyOf(fields, n * 2);
+            values = Arrays.copyOf(values, n * 2);
+        }
+        fields[n] = field;
+        values[n] = value;
+        size = n + 1;
+    }
+
+    /**
+     * Marks the index as built, letting waiting searches run.
+     * @param error Why indexing stopped before all fields were indexed, or {@code null}
+     */
+    void complete(Throwable error) {
+        this.error = error;
+        built.countDown();
+    }
+
+    /**
+     * Returns why indexing failed, or {@code null} if the index is complete or still
+     * being built. Searches of the failed index check only the fields, indexed before
+     * the failure.
+     */
+    public Throwable error() {
+        return error;
+    }
+
+    /** Count of indexed fields. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds fields, matching the query. Waits until index is built, then checks
+     * all fields in parallel and reports results in portions, as soon as they
+     * are found. Should be called in a background thread.
+     */
+    public void search(Query query, Listener listener, Search search) throws InterruptedException {
+        built.await();
+        pool.invoke(new SearchTask(fields, values, 0, size, query, listener, search));
+    }
+
+    /** Field matches, if its name contains the text (case-insensitive). */
+    public static Query nameContains(String text) {
+        final String needle = text.toLowerCase(Locale.ROOT);
+        return new Query() {
+            @Override
+            public boolean matches(OffsetIndex.Field field, Object value) {
+                return field.attrName() != null && field.attrName().toLowerCase(Locale.ROOT).contains(needle);
+            }
+        };
+    }
+
+    /** Field matches, if its name or its string value contains the text (case-insensitive). */
+    public static Query textContains(String text) {
+        final String needle = text.toLowerCase(Locale.ROOT);
+        final Query byName = nameContains(text);
+        return new Query() {
+            @Override
+            public boolean matches(OffsetIndex.Field field, Object value) {
+                return byName.matches(field, value)
+                    || value instanceof String && ((String) value).toLowerCase(Locale.ROOT).contains(needle);
+            }
+        };
+    }
+
+    /** Field matches, if it is an integer in the range (both ends inclusive). */
+    public static Query numberInRange(final long min, final long max) {
+        return new Query() {
+            @Override
+            public boolean matches(OffsetIndex.Field field, Object value) {
+                if (!(value instanceof Long || value instanceof Integer
+                   || value instanceof Short || value instanceof Byte)) return false;
+                final long n = ((Number) value).longValue();
+                return n >= min && n <= max;
+            }
+        };
+    }
+
+    /** Field matches, if it is a byte array, containing the pattern. */
+    public static Query bytesContain(final byte[] pattern) {
+        return new Query() {
+            @Override
+            public boolean matches(OffsetIndex.Field field, Object value) {
+                return value instanceof byte[] && indexOf((byte[]) value, pattern) >= 0;
+            }
+        };
+    }
+
+    /**
+     * Parses query, entered by user:
+     * <ul>
+     *   <li>{@code name:text} - field name contains text</li>
+     *   <li>{@code =123}, {@code =0x7b} - integer equals the number</li>
+     *   <li>{@code 10..20}, {@code -5..5} - integer is in the range</li>
+     *   <li>{@code hex:de ad be ef} - byte array contains bytes</li>
+     *   <li>anything else - field name or string value contains text</li>
+     * </ul>
+     * @throws NumberFormatException if number or bytes are malformed
+     */
+    public static Query parse(String text) {
+        final String q = text.trim();
+        if (q.startsWith("name:")) {
+            return nameContains(q.substring(5).trim());
+        }
+        if (q.startsWith("hex:")) {
+            return bytesContain(parseHex(q.substring(4)));
+        }
+        if (q.startsWith("=")) {
+            final long n = parseNumber(q.substring(1));
+            return numberInRange(n, n);
+        }
+        final int range = q.indexOf("..");
+        if (range > 0 && isNumberStart(q)) {
+            return numberInRange(parseNumber(q.substring(0, range)), parseNumber(q.substring(range + 2)));
+        }
+        return textContains(q);
+    }
+
+    /** Returns {@code true} if the text starts with a number, possibly negative. */
+    private static boolean isNumberStart(String text) {
+        final int digit = text.charAt(0) == '-' ? 1 : 0;
+        return digit < text.length() && Character.isDigit(text.charAt(digit));
+    }
+
+    private static long parseNumber(String text) {
+        final String s = text.trim();
+        if (s.startsWith("0x") || s.startsWith("0X")) {
+            return Long.parseLong(s.substring(2), 16);
+        }
+        return Long.parseLong(s);
+    }
+
+    private static byte[] parseHex(String text) {
+        final String s = text.replaceAll("\\s+", "");
+        if (s.isEmpty() || s.length() % 2 != 0) {
+            throw new NumberFormatException("odd or empty hex string: " + text);
+        }
+        final byte[] result = new byte[s.length() / 2];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Naive search of the pattern; patterns are short, so it is fast enough. */
+    static int indexOf(byte[] data, byte[] pattern) {
+        if (pattern.length == 0) return 0;
+        final byte first = pattern[0];
+        final int last = data.length - pattern.length;
+        outer:
+        for (int i = 0; i <= last; ++i) {
+            if (data[i] != first) continue;
+            for (int j = 1; j < pattern.length; ++j) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Checks a range of the index, splitting it in halves until it is small enough. */
+    private static class SearchTask extends RecursiveAction {
+        private final OffsetIndex.Field[] fields;
+        private final Object[] values;
+        private final int from;
+        private final int to;
+        private final Query query;
+        private final Listener listener;
+        private final Search search;
+
+        SearchTask(OffsetIndex.Field[] fields, Object[] values, int from, int to, Query query, Listener listener, Search search) {
+            this.fields = fields;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.query = query;
+            this.listener = listener;
+            this.search = search;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.isCancelled() || search.found() >= MAX_RESULTS) return;
+            if (to - from > SEARCH_CHUNK) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(
+                    new SearchTask(fields, values, from, mid, query, listener, search),
+                    new SearchTask(fields, values, mid, to, query, listener, search)
+                );
+                return;
+            }
+            final List<Result> results = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                if (query.matches(fields[i], values[i])) {
+                    results.add(new Result(fields[i], values[i]));
+                }
+            }
+            if (results.isEmpty()) return;
+
+            // Reserve place for results, so the limit is never exceeded
+            final int before = search.found.getAndAdd(results.size());
+            if (before >= MAX_RESULTS) return;
+            if (before + results.size() > MAX_RESULTS) {
+                listener.found(results.subList(0, MAX_RESULTS - before));
+            } else {
+                listener.found(results);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStruct;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+/**
+ * Search field and list of found fields. Results appear in the list as soon as
+ * they are found; selecting a result selects its node in the tree and its bytes
+ * in the hex view. See {@link SearchIndex#parse} for query syntax.
+ */
+public class SearchPanel extends JPanel {
+    /** Values longer than that are truncated in the list of results. */
+    private static final int MAX_VALUE_CHARS = 80;
+
+    /** Receiver of the field, selected in the list of results. */
+    public interface Navigator {
+        void jumpTo(OffsetIndex.Field field);
+    }
+
+    private final Metrics metrics;
+    private final Navigator navigator;
+    private final JTextField query = new JTextField();
+    private final JLabel status = new JLabel(" ");
+    private final DefaultListModel<SearchIndex.Result> results = new DefaultListModel<>();
+    private final JList<SearchIndex.Result> list = new JList<>(results);
+
+    private volatile SearchIndex index;
+    /** Currently running search; accessed only from the event dispatch thread. */
+    private SearchIndex.Search current;
+
+    public SearchPanel(Metrics metrics, Navigator navigator) {
+        super(new BorderLayout());
+        this.metrics = metrics;
+        this.navigator = navigator;
+
+        query.setToolTipText("text, name:text, =number, min..max or hex:bytes");
+        query.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                search(query.getText());
+            }
+        });
+        status.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setCellRenderer(new ResultRenderer());
+        list.addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if (e.getValueIsAdjusting()) return;
+                final SearchIndex.Result selected = list.getSelectedValue();
+                if (selected != null) {
+                    SearchPanel.this.navigator.jumpTo(selected.field());
+                }
+            }
+        });
+
+        final JPanel top = new JPanel(new BorderLayout());
+        top.add(new JLabel(" Find: "), BorderLayout.WEST);
+        top.add(query, BorderLayout.CENTER);
+        add(top, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+        add(status, BorderLayout.SOUTH);
+    }
+
+    /** Sets index of the newly loaded file, forgetting results of the previous one. */
+    public void setIndex(SearchIndex index) {
+        this.index = index;
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+        results.clear();
+        status.setText(" ");
+    }
+
+    private void search(String text) {
+        if (current != null) {
+            current.cancel();
+        }
+        results.clear();
+        if (index == null || text.trim().isEmpty()) {
+            status.setText(" ");
+            return;
+        }
+        final SearchIndex.Query q;
+        try {
+            q = SearchIndex.parse(text);
+        } catch (NumberFormatException e) {
+            status.setText("Invalid query: " + e.getMessage());
+            return;
+        }
+
+        final SearchIndex searchIndex = index;
+        final SearchIndex.Search search = new SearchIndex.Search();
+        current = search;
+        status.setText("Searching...");
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = metrics.start();
+                try {
+                    searchIndex.search(q, new SearchIndex.Listener() {
+                        @Override
+                        public void found(final List<SearchIndex.Result> found) {
+                            SwingUtilities.invokeLater(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (search != current) return;
+                                    for (final SearchIndex.Result r : found) {
+                                        results.addElement(r);
+                                    }
+                                    status.setText("Found " + results.size() + "...");
+                                }
+                            });
+                        }
+                    }, search);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                metrics.stop(Metrics.SEARCH, start);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (search != current) return;
+                        final Throwable error = searchIndex.error();
+                        status.setText("Found " + results.size()
+                            + (results.size() >= SearchIndex.MAX_RESULTS ? " (limit reached)" : "")
+                            + " of " + searchIndex.size() + " fields"
+                            + (error != null ? " (indexing failed: " + error + ")" : ""));
+                    }
+                });
+            }
+        }, "kaitai-search");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Shows path, value and position of the found field. */
+    private static class ResultRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused) {
+            final SearchIndex.Result r = (SearchIndex.Result) value;
+            final StringBuilder sb = new StringBuilder(r.path());
+            final Object v = r.value();
+            if (v instanceof byte[]) {
+                sb.append(" = [").append(((byte[]) v).length).append(" bytes]");
+            } else if (!(v instanceof KaitaiStruct) && !(v instanceof List)) {
+                final String text = String.valueOf(v);
+                sb.append(" = ").append(text.length() > MAX_VALUE_CHARS ? text.substring(0, MAX_VALUE_CHARS) + "..." : text);
+            }
+            if (r.field().start() >= 0) {
+                sb.append("  @0x").append(Long.toHexString(r.field().start()));
+            }
+            return super.getListCellRendererComponent(list, sb.toString(), index, selected, focused);
+        }
+    }
+}
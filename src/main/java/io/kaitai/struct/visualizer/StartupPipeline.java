@@ -0,0 +1,116 @@
+package io.kaitai.struct.visualizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the spec and the data file on startup, concurrently with creation of the window.
+ * Most of the time to the first paint is spent on class loading and JIT warm-up of the
+ * Scala compiler and javac, so they are started first thing in {@code main}:
+ * <ul>
+ *   <li>the spec is read and compiled in one thread (javac is warmed up in yet another
+ *   one meanwhile, see {@link VisualizerPanel#loadKSY})</li>
+ *   <li>the data file is mapped in another thread</li>
+ *   <li>the main thread builds the window, which shows the data as soon as it is mapped</li>
+ * </ul>
+ *
+ * Time of every phase since the start of {@code main} is recorded in {@link Metrics}.
+ * If {@code kaitai.startup.report} system property is {@code true}, startup timings
+ * are also printed to {@code System.err} when the tree is shown.
+ */
+public class StartupPipeline {
+    private static final String[] PHASES = {
+        Metrics.STARTUP_JVM,
+        Metrics.STARTUP_WINDOW,
+        Metrics.STARTUP_DATA,
+        Metrics.STARTUP_SPEC,
+        Metrics.STARTUP_TREE,
+        Metrics.COMPILE_KSY,
+        Metrics.JAVAC_WARMUP,
+        Metrics.COMPILE_JAVA,
+    };
+
+    private final Metrics metrics;
+    /** Mark of the start of {@code main}. */
+    private final long start;
+    private final Future<Class<?>> spec;
+    private final Future<MappedKaitaiStream> data;
+
+    /** Starts loading of both files; should be called first thing in {@code main}. */
+    public StartupPipeline(final String ksyFileName, final String dataFileName, final Metrics metrics) {
+        this.metrics = metrics;
+        this.start = metrics.start();
+        this.spec = startThread("kaitai-startup-spec", new Callable<Class<?>>() {
+            @Override
+            public Class<?> call() throws Exception {
+                final Class<?> ksyClass = VisualizerPanel.loadKSY(ksyFileName, metrics);
+                reached(Metrics.STARTUP_SPEC);
+                return ksyClass;
+            }
+        });
+        this.data = startThread("kaitai-startup-data", new Callable<MappedKaitaiStream>() {
+            @Override
+            public MappedKaitaiStream call() throws Exception {
+                final MappedKaitaiStream io = new MappedKaitaiStream(dataFileName);
+                // Management classes are loaded here rather than in the main thread
+                final long uptime = TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+                metrics.record(Metrics.STARTUP_JVM, uptime - (System.nanoTime() - start));
+                return io;
+            }
+        });
+    }
+
+    /** Waits until classes of the spec are loaded. */
+    public Class<?> spec() throws Exception {
+        return get(spec);
+    }
+
+    /** Waits until the data file is mapped. */
+    public MappedKaitaiStream data() throws Exception {
+        return get(data);
+    }
+
+    /** Records time from the start of {@code main} until the phase. */
+    public void reached(String phase) {
+        metrics.stop(phase, start);
+    }
+
+    /** Records that the tree is shown and startup is finished. */
+    public void finish() {
+        reached(Metrics.STARTUP_TREE);
+        if (Boolean.getBoolean("kaitai.startup.report")) {
+            final Map<String, Metrics.Timing> timings = metrics.timings();
+            final StringBuilder sb = new StringBuilder("Startup:");
+            for (final String phase : PHASES) {
+                final Metrics.Timing t = timings.get(phase);
+                if (t == null) continue;
+                sb.append(' ').append(phase).append(' ').append(t.totalNanos() / 1000000).append(" ms");
+            }
+            System.err.println(sb);
+        }
+    }
+
+    private static <T> Future<T> startThread(String name, Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<>(task);
+        final Thread thread = new Thread(future, name);
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks of streams. Reading seeks in the stream, so everything, that reads a stream,
+ * shared with other threads (the parser, lazy instances, exporter), must hold its lock.
+ * Unlike a monitor, the lock can be awaited with a timeout.
+ */
+public class StreamLocks {
+    /** Locks by stream; streams do not override {@code equals}, so they are compared by identity. */
+    private static final Map<KaitaiStream, ReentrantLock> LOCKS = new WeakHashMap<>();
+
+    private StreamLocks() {}
+
+    /** Returns the lock of the stream, creating it on the first call. */
+    public static synchronized ReentrantLock of(KaitaiStream io) {
+        ReentrantLock lock = LOCKS.get(io);
+        if (lock == null) {
+            lock = new ReentrantLock();
+            LOCKS.put(io, lock);
+        }
+        return lock;
+    }
+
+    /**
+     * Returns the lock of the file, the struct was read from: the lock of the stream of
+     * its {@code _root}. Instances of structs in substreams could seek in the stream of
+     * {@code _root} or {@code _parent}, so they hold the lock of the whole file rather
+     * than the lock of their own stream.
+     */
+    public static ReentrantLock ofFile(KaitaiStruct struct) {
+        return of(StructMetadata.of(struct.getClass()).root(struct)._io());
+    }
+}
@@ -0,0 +1,305 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Field by field comparison of two files, parsed with the same spec. Object graphs
+ * are walked in parallel on a fork/join pool, one task per pair of structs (and per
+ * chunk of long lists).
+ *
+ * Before comparing two structs field by field, bytes they were read from are compared:
+ * if both structs were read from identical bytes, they are considered equal and skipped.
+ * This assumes that struct depends only on its bytes; structs, which depend on
+ * parameters or on values outside of them, could differ even if their bytes are equal.
+ *
+ * Only values, already known after parsing, are compared: lazy instances are not calculated.
+ */
+public class StructDiff {
+    /** Elements of lists, compared by one task. */
+    private static final int LIST_CHUNK = 4096;
+    /** Bytes, copied from each stream at once while comparing bytes of structs. */
+    private static final int COMPARE_CHUNK = 64 * 1024;
+
+    /** Field, that has different values in the compared files. */
+    public static class Change {
+        private final OffsetIndex.Field left;
+        private final OffsetIndex.Field right;
+        private final Object leftValue;
+        private final Object rightValue;
+
+        Change(OffsetIndex.Field left, OffsetIndex.Field right, Object leftValue, Object rightValue) {
+            this.left = left;
+            this.right = right;
+            this.leftValue = leftValue;
+            this.rightValue = rightValue;
+        }
+
+        /** Field in the first file; position is -1 if unknown. */
+        public OffsetIndex.Field left() {
+            return left;
+        }
+
+        /** Field in the second file; position is -1 if unknown. */
+        public OffsetIndex.Field right() {
+            return right;
+        }
+
+        /** Value in the first file, {@code null} if field is absent there. */
+        public Object leftValue() {
+            return leftValue;
+        }
+
+        /** Value in the second file, {@code null} if field is absent there. */
+        public Object rightValue() {
+            return rightValue;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicLong skipped = new AtomicLong();
+    private KaitaiStream leftIo;
+    private KaitaiStream rightIo;
+
+    public StructDiff() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public StructDiff(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Compares two parsed structs of the same type. Should be called in a background thread.
+     * @return Changed fields, ordered by their position in the first file
+     */
+    public List<Change> compare(KaitaiStruct left, KaitaiStruct right) {
+        changes.clear();
+        skipped.set(0);
+        leftIo = left._io();
+        rightIo = right._io();
+        pool.invoke(new StructTask(left, right, null, null));
+
+        final List<Change> result = new ArrayList<>(changes);
+        Collections.sort(result, new Comparator<Change>() {
+            @Override
+            public int compare(Change a, Change b) {
+                // Fields with unknown position go last
+                final long aStart = a.left.start() >= 0 ? a.left.start() : Long.MAX_VALUE;
+                final long bStart = b.left.start() >= 0 ? b.left.start() : Long.MAX_VALUE;
+                if (aStart != bStart) return Long.compare(aStart, bStart);
+                return a.left.toString().compareTo(b.left.toString());
+            }
+        });
+        return result;
+    }
+
+    /** Count of structs, skipped during the last comparison, because their bytes were equal. */
+    public long skipped() {
+        return skipped.get();
+    }
+
+    /** Returns {@code true} if both ranges are known and contain equal bytes. */
+    private static boolean sameBytes(KaitaiStream a, long aStart, long aEnd, KaitaiStream b, long bStart, long bEnd) {
+        if (aStart < 0 || aEnd < aStart || bStart < 0 || aEnd - aStart != bEnd - bStart) return false;
+        if (aEnd > a.size() || bEnd > b.size()) return false;
+        if (!isCopied(a) || !isCopied(b)) return false;
+
+        // Big structs are compared by pieces, so memory use does not depend on their size
+        final byte[] aBuf = new byte[(int) Math.min(COMPARE_CHUNK, aEnd - aStart)];
+        final byte[] bBuf = new byte[aBuf.length];
+        while (aStart < aEnd) {
+            final int n = (int) Math.min(aBuf.length, aEnd - aStart);
+            copy(a, aStart, aBuf, n);
+            copy(b, bStart, bBuf, n);
+            if (!ByteBuffer.wrap(aBuf, 0, n).equals(ByteBuffer.wrap(bBuf, 0, n))) return false;
+            aStart += n;
+            bStart += n;
+        }
+        return true;
+    }
+
+    /** Returns {@code true} if bytes of the stream can be copied without reading it. */
+    private static boolean isCopied(KaitaiStream io) {
+        return io instanceof MappedKaitaiStream || io instanceof ByteBufferKaitaiStream;
+    }
+
+    /** Copies bytes of the stream, checked by {@link #isCopied}, without changing its position. */
+    private static void copy(KaitaiStream io, long start, byte[] dst, int length) {
+        if (io instanceof MappedKaitaiStream) {
+            ((MappedKaitaiStream) io).read(start, dst, 0, length);
+        } else {
+            final ByteBuffer buf = ((ByteBufferKaitaiStream) io).asRoBuffer();
+            buf.position((int) start);
+            buf.get(dst, 0, length);
+        }
+    }
+
+    /** Value of one side: struct, that owns the value, and where it was read from. */
+    private static class Side {
+        private final KaitaiStruct owner;
+        private final OffsetIndex.Field field;
+        /** Position of the value in the stream of the owner (not necessarily the top-level one). */
+        private final long start;
+        private final long end;
+
+        Side(KaitaiStruct owner, OffsetIndex.Field field, long start, long end) {
+            this.owner = owner;
+            this.field = field;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Compares two values. Nested structs and lists are compared by subtasks,
+     * added to the list.
+     */
+    private void compareValues(Object l, Object r, Side left, Side right, List<RecursiveAction> subtasks) {
+        if (l == null && r == null) return;
+        if (l == null || r == null || l.getClass() != r.getClass()) {
+            changes.add(new Change(left.field, right.field, l, r));
+            return;
+        }
+        if (l instanceof KaitaiStruct) {
+            if (sameBytes(left.owner._io(), left.start, left.end, right.owner._io(), right.start, right.end)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            subtasks.add(new StructTask((KaitaiStruct) l, (KaitaiStruct) r, left.field, right.field));
+        } else if (l instanceof ArrayList) {
+            final ArrayList<?> lList = (ArrayList<?>) l;
+            final ArrayList<?> rList = (ArrayList<?>) r;
+            if (lList.size() != rList.size()) {
+                // Report length change; common elements are compared anyway
+                changes.add(new Change(left.field, right.field, l, r));
+            } else if (sameBytes(left.owner._io(), left.start, left.end, right.owner._io(), right.start, right.end)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            final int size = Math.min(lList.size(), rList.size());
+            for (int i = 0; i < size; i += LIST_CHUNK) {
+                subtasks.add(new ListTask(lList, rList, left, right, i, Math.min(size, i + LIST_CHUNK)));
+            }
+        } else if (l instanceof byte[]) {
+            if (!Arrays.equals((byte[]) l, (byte[]) r)) {
+                changes.add(new Change(left.field, right.field, l, r));
+            }
+        } else if (!l.equals(r)) {
+            changes.add(new Change(left.field, right.field, l, r));
+        }
+    }
+
+    /** Compares all fields of two structs. */
+    private class StructTask extends RecursiveAction {
+        private final KaitaiStruct left;
+        private final KaitaiStruct right;
+        private final OffsetIndex.Field leftOwner;
+        private final OffsetIndex.Field rightOwner;
+
+        StructTask(KaitaiStruct left, KaitaiStruct right, OffsetIndex.Field leftOwner, OffsetIndex.Field rightOwner) {
+            this.left = left;
+            this.right = right;
+            this.leftOwner = leftOwner;
+            this.rightOwner = rightOwner;
+        }
+
+        @Override
+        protected void compute() {
+            final StructMetadata meta = StructMetadata.of(left.getClass());
+            // Without position info all positions are unknown
+            final boolean debug = meta.hasDebugInfo();
+            final Map<String, ? extends Number> lStarts = debug ? meta.attrStart(left) : null;
+            final Map<String, ? extends Number> lEnds = debug ? meta.attrEnd(left) : null;
+            final Map<String, ? extends Number> rStarts = debug ? meta.attrStart(right) : null;
+            final Map<String, ? extends Number> rEnds = debug ? meta.attrEnd(right) : null;
+            // Positions in substreams can't be shown in the hex view
+            final boolean lTop = left._io() == leftIo;
+            final boolean rTop = right._io() == rightIo;
+
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            for (final StructMetadata.Attribute attr : meta.attributes()) {
+                final String name = attr.name();
+                final long lStart = StructMetadata.pos(lStarts, name);
+                final long lEnd = StructMetadata.pos(lEnds, name);
+                final long rStart = StructMetadata.pos(rStarts, name);
+                final long rEnd = StructMetadata.pos(rEnds, name);
+                final Side l = new Side(left, new OffsetIndex.Field(
+                    leftOwner, name, -1, lTop ? lStart : -1, lTop ? lEnd : -1
+                ), lStart, lEnd);
+                final Side r = new Side(right, new OffsetIndex.Field(
+                    rightOwner, name, -1, rTop ? rStart : -1, rTop ? rEnd : -1
+                ), rStart, rEnd);
+                compareValues(attr.get(left), attr.get(right), l, r, subtasks);
+            }
+            invokeAll(subtasks);
+        }
+    }
+
+    /** Compares a range of elements of two lists. */
+    private class ListTask extends RecursiveAction {
+        private final ArrayList<?> leftList;
+        private final ArrayList<?> rightList;
+        private final Side left;
+        private final Side right;
+        private final int from;
+        private final int to;
+
+        ListTask(ArrayList<?> leftList, ArrayList<?> rightList, Side left, Side right, int from, int to) {
+            this.leftList = leftList;
+            this.rightList = rightList;
+            this.left = left;
+            this.right = right;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final StructMetadata meta = StructMetadata.of(left.owner.getClass());
+            final String name = left.field.attrName();
+            final boolean debug = meta.hasDebugInfo();
+            final Map<String, ? extends List<? extends Number>> lStarts = debug ? meta.arrStart(left.owner) : null;
+            final Map<String, ? extends List<? extends Number>> lEnds = debug ? meta.arrEnd(left.owner) : null;
+            final Map<String, ? extends List<? extends Number>> rStarts = debug ? meta.arrStart(right.owner) : null;
+            final Map<String, ? extends List<? extends Number>> rEnds = debug ? meta.arrEnd(right.owner) : null;
+            final List<? extends Number> lStart = lStarts != null ? lStarts.get(name) : null;
+            final List<? extends Number> lEnd = lEnds != null ? lEnds.get(name) : null;
+            final List<? extends Number> rStart = rStarts != null ? rStarts.get(name) : null;
+            final List<? extends Number> rEnd = rEnds != null ? rEnds.get(name) : null;
+            final boolean lTop = left.owner._io() == leftIo;
+            final boolean rTop = right.owner._io() == rightIo;
+
+            final List<RecursiveAction> subtasks = new ArrayList<>();
+            for (int i = from; i < to; ++i) {
+                final long ls = StructMetadata.pos(lStart, i);
+                final long le = StructMetadata.pos(lEnd, i);
+                final long rs = StructMetadata.pos(rStart, i);
+                final long re = StructMetadata.pos(rEnd, i);
+                final Side l = new Side(left.owner, new OffsetIndex.Field(
+                    left.field, null, i, lTop ? ls : -1, lTop ? le : -1
+                ), ls, le);
+                final Side r = new Side(right.owner, new OffsetIndex.Field(
+                    right.field, null, i, rTop ? rs : -1, rTop ? re : -1
+                ), rs, re);
+                compareValues(leftList.get(i), rightList.get(i), l, r, subtasks);
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStruct;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Reflection metadata of a class, generated from .ksy. Built only once per
+ * class and shared by all its instances, so exploring thousands of structs
+ * of the same type does not repeat reflective lookups.
+ */
+public class StructMetadata {
+    private static final String RAW_PROCESSED = "_raw__raw_";
+
+    private static final ClassValue<StructMetadata> CACHE = new ClassValue<StructMetadata>() {
+        @Override
+        protected StructMetadata computeValue(Class<?> type) {
+            return new StructMetadata(type);
+        }
+    };
+
+    /** Attribute of the struct: public accessor method and handle to read the backing field. */
+    public static class Attribute {
+        private final String name;
+        private final Method method;
+        private final MethodHandle getter;
+
+        private Attribute(String name, Method method, MethodHandle getter) {
+            this.name = name;
+            this.method = method;
+            this.getter = getter;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /** Accessor method, which calculates value on first call for instances. */
+        public Method method() {
+            return method;
+        }
+
+        /**
+         * Reads backing field of the attribute without triggering any calculations.
+         * @return Value of the field, {@code null} for not yet calculated instances
+         */
+        public Object get(KaitaiStruct struct) {
+            try {
+                return getter.invoke(struct);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final List<Attribute> attributes;
+    /** Names of attributes, whose bytes were processed before parsing. */
+    private final Set<String> processed = new HashSet<>();
+    private final MethodHandle attrStart;
+    private final MethodHandle attrEnd;
+    private final MethodHandle arrStart;
+    private final MethodHandle arrEnd;
+    private final MethodHandle root;
+
+    private StructMetadata(Class<?> cl) {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final Map<String, Field> fields = new HashMap<>();
+        for (final Field f : cl.getDeclaredFields()) {
+            fields.put(f.getName(), f);
+            // Generated code keeps bytes before processing in "_raw__raw_<name>"
+            if (f.getName().startsWith(RAW_PROCESSED)) {
+                processed.add(f.getName().substring(RAW_PROCESSED.length()));
+            }
+        }
+
+        final Map<String, Method> accessors = new HashMap<>();
+        for (final Method m : cl.getDeclaredMethods()) {
+            // Ignore static methods, i.e. "fromFile"
+            if (Modifier.isStatic(m.getModifiers()) || m.getParameterTypes().length != 0)
+                continue;
+
+            // Ignore all internal methods, i.e. "_io", "_parent", "_root"
+            if (m.getName().charAt(0) == '_')
+                continue;
+
+            accessors.put(m.getName(), m);
+        }
+
+        // Generated code declares fields of the seq in its order and HotSpot usually
+        // reports fields in declaration order, but neither getDeclaredFields nor
+        // getDeclaredMethods guarantees any order, so it is only a fallback for
+        // structs without position info
+        final List<Attribute> attrs = new ArrayList<>();
+        for (final Field field : cl.getDeclaredFields()) {
+            // Value instances have no backing field, so they are never found here
+            final Method m = accessors.get(field.getName());
+            if (m != null) {
+                attrs.add(new Attribute(field.getName(), m, unreflect(lookup, field)));
+            }
+        }
+        this.attributes = Collections.unmodifiableList(attrs);
+
+        this.attrStart = unreflect(lookup, fields.get("_attrStart"));
+        this.attrEnd = unreflect(lookup, fields.get("_attrEnd"));
+        this.arrStart = unreflect(lookup, fields.get("_arrStart"));
+        this.arrEnd = unreflect(lookup, fields.get("_arrEnd"));
+        this.root = unreflect(lookup, fields.get("_root"));
+    }
+
+    public static StructMetadata of(Class<?> cl) {
+        return CACHE.get(cl);
+    }
+
+    /**
+     * Attributes of the struct in the order of their backing fields, reported by reflection.
+     * The order is unspecified, so use {@link #attributes(KaitaiStruct)} where it matters.
+     */
+    public List<Attribute> attributes() {
+        return attributes;
+    }
+
+    /**
+     * Attributes of the struct in the order of their start positions, i.e. in the order
+     * of the seq for sequential ones. Attributes without position info (not yet parsed
+     * or calculated instances) go last, in the order of {@link #attributes()}, which is
+     * the only order for classes, compiled without position info.
+     */
+    public List<Attribute> attributes(KaitaiStruct struct) {
+        if (!hasDebugInfo()) return attributes;
+
+        final Map<String, ? extends Number> starts = attrStart(struct);
+        final List<Attribute> sorted = new ArrayList<>(attributes);
+        // Sort is stable, so attributes at the same position keep their relative order
+        Collections.sort(sorted, new Comparator<Attribute>() {
+            @Override
+            public int compare(Attribute a, Attribute b) {
+                return Long.compare(sortKey(starts, a), sortKey(starts, b));
+            }
+        });
+        return sorted;
+    }
+
+    private static long sortKey(Map<String, ? extends Number> starts, Attribute attr) {
+        final long pos = pos(starts, attr.name);
+        return pos < 0 ? Long.MAX_VALUE : pos;
+    }
+
+    /**
+     * Returns {@code true} if the attribute is a {@code size:} field with {@code process:},
+     * i.e. its substream contains processed bytes rather than bytes of the parent stream.
+     */
+    public boolean isProcessed(String name) {
+        return processed.contains(name);
+    }
+
+    /** Returns {@code true} if the class was compiled with position info ({@code readStoresPos}). */
+    public boolean hasDebugInfo() {
+        return attrStart != null && attrEnd != null && arrStart != null && arrEnd != null;
+    }
+
+    /**
+     * Top-level struct of the struct ({@code _root}), which was read from the file stream.
+     * @return {@code _root} or the struct itself, if it is the top-level one or has no {@code _root}
+     */
+    public KaitaiStruct root(KaitaiStruct struct) {
+        if (root == null) return struct;
+        final Object r = read(root, struct);
+        return r instanceof KaitaiStruct ? (KaitaiStruct) r : struct;
+    }
+
+    /**
+     * Start positions of attributes. Values are {@code Integer} in code, generated
+     * for the current runtime, so they should be read with {@link #pos(Map, String)}.
+     */
+    public Map<String, ? extends Number> attrStart(KaitaiStruct struct) {
+        return read(attrStart, struct);
+    }
+
+    public Map<String, ? extends Number> attrEnd(KaitaiStruct struct) {
+        return read(attrEnd, struct);
+    }
+
+    public Map<String, ? extends List<? extends Number>> arrStart(KaitaiStruct struct) {
+        return read(arrStart, struct);
+    }
+
+    public Map<String, ? extends List<? extends Number>> arrEnd(KaitaiStruct struct) {
+        return read(arrEnd, struct);
+    }
+
+    /**
+     * Replaces position info of the struct with maps, that can be read by other threads
+     * while the struct is being parsed, and whose lists of positions of array elements
+     * can be read too. Must be called before parsing starts.
+     * @param completed Receiver of names of attributes, as soon as their end positions are stored
+     */
+    public void sharePositions(KaitaiStruct struct, Queue<String> completed) {
+        if (!hasDebugInfo()) return;
+        share(struct, "_attrStart", null);
+        share(struct, "_attrEnd", completed);
+        share(struct, "_arrStart", null);
+        share(struct, "_arrEnd", null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void share(KaitaiStruct struct, String name, Queue<String> completed) {
+        try {
+            final Field field = struct.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            final SharedPositions<Object> shared = new SharedPositions<>(completed);
+            for (final Map.Entry<String, Object> e : ((Map<String, Object>) field.get(struct)).entrySet()) {
+                shared.put(e.getKey(), e.getValue());
+            }
+            field.set(struct, shared);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Position map, filled by the parsing thread and read by others. Generated code
+     * and readers use only {@code get} and {@code put}, so only they are synchronized.
+     * Lists of positions of array elements are replaced by {@link SharedList}s.
+     */
+    private static class SharedPositions<V> extends HashMap<String, V> {
+        private final Queue<String> completed;
+
+        SharedPositions(Queue<String> completed) {
+            this.completed = completed;
+        }
+
+        @Override
+        public synchronized V get(Object key) {
+            return super.get(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized V put(String key, V value) {
+            // Generated code casts lists to ArrayList, so they are replaced by its subclass
+            final V shared = value instanceof ArrayList && !(value instanceof SharedList)
+                ? (V) new SharedList<>((ArrayList<?>) value)
+                : value;
+            final V old = super.put(key, shared);
+            if (completed != null) {
+                completed.add(key);
+            }
+            return old;
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object key) {
+            return super.containsKey(key);
+        }
+    }
+
+    /**
+     * List of positions of array elements, appended by the parsing thread and read
+     * by others. Generated code only appends to it and readers use only {@code get}
+     * and {@code size}, so only they are synchronized.
+     */
+    private static class SharedList<E> extends ArrayList<E> {
+        SharedList(Collection<? extends E> positions) {
+            super(positions);
+        }
+
+        @Override
+        public synchronized boolean add(E e) {
+            return super.add(e);
+        }
+
+        @Override
+        public synchronized E get(int index) {
+            return super.get(index);
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+    }
+
+    /** Position of the attribute from the position info, or -1 if it is unknown. */
+    public static long pos(Map<String, ? extends Number> positions, String name) {
+        return positions != null ? pos(positions.get(name)) : -1;
+    }
+
+    /** Position of the element of the array from the position info, or -1 if it is unknown. */
+    public static long pos(List<? extends Number> positions, int i) {
+        return positions != null && i < positions.size() ? pos(positions.get(i)) : -1;
+    }
+
+    /**
+     * Converts position from the position info to {@code long}. Generated code stores
+     * positions as {@code int}, so positions beyond 2 GiB, reported by
+     * {@link MappedKaitaiStream}, are negative and are read as unsigned: {@code Integer}
+     * -1 is the position 4294967295. Only a missing position ({@code null}) is unknown,
+     * so the returned -1 never clashes with a real position.
+     */
+    public static long pos(Number pos) {
+        if (pos == null) return -1;
+        if (pos instanceof Integer) return pos.intValue() & 0xFFFFFFFFL;
+        return pos.longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T read(MethodHandle getter, KaitaiStruct struct) {
+        try {
+            return (T) getter.invoke(struct);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle unreflect(MethodHandles.Lookup lookup, Field field) {
+        if (field == null) return null;
+        field.setAccessible(true);
+        try {
+            return lookup.unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
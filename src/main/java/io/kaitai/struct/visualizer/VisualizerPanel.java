@@ -1,12 +1,26 @@
 package io.kaitai.struct.visualizer;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,22 +38,24 @@ import io.kaitai.struct.formats.JavaClassSpecs;
 import io.kaitai.struct.formats.JavaKSYParser;
 import io.kaitai.struct.languages.JavaCompiler$;
 
-import org.mdkt.compiler.InMemoryJavaCompiler;
 
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.event.TreeWillExpandListener;
-import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.ExpandVetoException;
 import javax.swing.tree.TreePath;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTree;
+import javax.swing.SwingUtilities;
 
 import tv.porst.jhexview.JHexView;
-import tv.porst.jhexview.SimpleDataProvider;
 
 public class VisualizerPanel extends JPanel {
     /** Package to generate classes in. */
@@ -63,15 +79,94 @@ public class VisualizerPanel extends JPanel {
     /** Background color selected hex data in HEX and ASCII sections. */
     private static final Color SELECTION = new Color(0xc0c0c0);
 
+    /**
+     * Configuration of the compiler. Also used as part of the key in {@link #CACHE},
+     * so changing it invalidates previously compiled specs.
+     */
+    private static final RuntimeConfig CONFIG = new RuntimeConfig(
+        false,// autoRead - do not call `_read` automatically in constructor
+        true, // readStoresPos - enable generation of a position info which is accessed in DebugAids later
+        true, // opaqueTypes
+        null, // cppConfig
+        null, // goPackage
+        new JavaRuntimeConfig(
+            DEST_PACKAGE,
+            // Class to be invoked in `fromFile` helper methods
+            "io.kaitai.struct.ByteBufferKaitaiStream",
+            // Exception class expected to be thrown on end-of-stream errors
+            "java.nio.BufferUnderflowException"
+        ),
+        null, // dotNetNamespace
+        null, // phpNamespace
+        null, // pythonPackage
+        null, // nimModule
+        null  // nimOpaque
+    );
+    /** Cache of compiled specs, shared by all panels. */
+    private static final CompiledSpecCache CACHE = CompiledSpecCache.createDefault();
+    /** Set by the first {@link #warmUpJavac} call. */
+    private static final AtomicBoolean JAVAC_WARMED_UP = new AtomicBoolean();
+
     private final JTree tree = new JTree();
-    private final DefaultTreeModel model = new DefaultTreeModel(null);
+    private final DataTreeModel model = new DataTreeModel();
+    private final Metrics metrics;
+    private final ExploreScheduler scheduler;
     private final JHexView hexEditor = new JHexView();
+    /** Shows progress of parsing of the top-level struct. */
+    private final JProgressBar progress = new JProgressBar();
     private final JSplitPane splitPane;
 
-    private KaitaiStruct struct;
+    private String ksyFileName;
+    private String dataFileName;
+    /** Classes of the spec; written only from the event dispatch thread, read by the watcher thread. */
+    private volatile Class<?> ksyClass;
+    /** Top-level struct, shown in the tree; written only from the event dispatch thread. */
+    private volatile KaitaiStruct struct;
+    /** Parser of the current struct; accessed only from the event dispatch thread. */
+    private IncrementalParser parser;
+    private FileWatcher watcher;
+    /** Reverse index from offsets to fields, built in background after parsing. */
+    private volatile OffsetIndex offsetIndex = new OffsetIndex();
+    /** Count of started navigations by {@link #selectField}; only the last one selects its node. */
+    private int navigation;
+    /** Stream, which data is shown in the hex view; accessed only from the event dispatch thread. */
+    private KaitaiStream shownIo;
+    /** Provider of the data, shown in the hex view; accessed only from the event dispatch thread. */
+    private MappedDataProvider shownData;
+    private final SearchPanel searchPanel;
+    private final CoverageMinimap minimap = new CoverageMinimap(new CoverageMinimap.Navigator() {
+        @Override
+        public void jumpTo(long start, long end) {
+            selectRange(start, end);
+        }
+    });
+    private final List<ParseListener> parseListeners = new CopyOnWriteArrayList<>();
+
+    /** Receiver of notifications about finished parsing. */
+    public interface ParseListener {
+        /**
+         * Called in the event dispatch thread when parsing of the top-level struct finishes.
+         * @param struct Parsed struct
+         * @param error Error, occurred while parsing, or {@code null}
+         */
+        void parsed(KaitaiStruct struct, Throwable error);
+    }
 
     public VisualizerPanel() throws IOException {
+        this(new Metrics());
+    }
+
+    /** @param metrics Receiver of timings, shared with the startup code */
+    public VisualizerPanel(Metrics metrics) throws IOException {
         super();
+        this.metrics = metrics;
+        this.scheduler = new ExploreScheduler(model, metrics);
+        this.searchPanel = new SearchPanel(metrics, new SearchPanel.Navigator() {
+            @Override
+            public void jumpTo(OffsetIndex.Field field) {
+                VisualizerPanel.this.jumpTo(field);
+            }
+        });
         JScrollPane treeScroll = new JScrollPane(tree);
 
         hexEditor.setSeparatorsVisible(false);
@@ -92,79 +187,569 @@ public class VisualizerPanel extends JPanel {
         hexEditor.setBackgroundColorHexView(hexEditor.getBackground());
         hexEditor.setBackgroundColorAsciiView(hexEditor.getBackground());
 
-        splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, treeScroll, hexEditor);
+        final JPanel treePanel = new JPanel(new BorderLayout());
+        final JSplitPane treeAndSearch = new JSplitPane(JSplitPane.VERTICAL_SPLIT, treeScroll, searchPanel);
+        treeAndSearch.setResizeWeight(0.8);
+        treePanel.add(treeAndSearch, BorderLayout.CENTER);
+        treePanel.add(progress, BorderLayout.SOUTH);
+        progress.setVisible(false);
+
+        final JPanel hexPanel = new JPanel(new BorderLayout());
+        hexPanel.add(hexEditor, BorderLayout.CENTER);
+        hexPanel.add(minimap, BorderLayout.EAST);
+
+        splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, treePanel, hexPanel);
 
         tree.setShowsRootHandles(true);
+        tree.setCellRenderer(new DataNodeRenderer());
+        // Fixed row height lets the tree ask renderer only for rows, that are visible
+        tree.setRowHeight(Math.max(tree.getRowHeight(), tree.getFontMetrics(tree.getFont()).getHeight() + 2));
+        tree.setLargeModel(true);
         KaitaiTreeListener treeListener = new KaitaiTreeListener();
         tree.addTreeWillExpandListener(treeListener);
+        tree.addTreeExpansionListener(treeListener);
         tree.addTreeSelectionListener(treeListener);
         tree.setModel(model);
+        treeScroll.getViewport().addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                exploreVisible();
+            }
+        });
+
+        hexEditor.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                // Let hex view move its caret first
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        selectFieldAt(hexEditor.getCurrentOffset());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Explores expanded nodes, which placeholders are visible, and cancels pending
+     * exploration of nodes, which placeholders were scrolled out of view.
+     */
+    private void exploreVisible() {
+        final Rectangle visible = tree.getVisibleRect();
+        final int first = tree.getClosestRowForLocation(visible.x, visible.y);
+        final int last = tree.getClosestRowForLocation(visible.x, visible.y + visible.height);
+        if (first < 0) return;
+
+        final Set<DataNode> shown = new HashSet<>();
+        for (int row = first; row <= last; ++row) {
+            final TreePath path = tree.getPathForRow(row);
+            if (path != null && path.getLastPathComponent() == DataTreeModel.LOADING) {
+                final DataNode node = (DataNode) path.getParentPath().getLastPathComponent();
+                shown.add(node);
+                scheduler.explore(node);
+            }
+        }
+        scheduler.retain(shown);
     }
 
+    /**
+     * Compiles .ksy file into bytecode, loads it into current JVM and creates
+     * top-level struct for the given binary file. Actual parsing is done later
+     * by {@link IncrementalParser}.
+     */
     public void loadAll(String dataFileName, String ksyFileName) throws Exception {
-        parseFileWithKSY(ksyFileName, dataFileName);
-        loadStruct();
+        this.dataFileName = dataFileName;
+        this.ksyFileName = ksyFileName;
+        final Class<?> newKsyClass = loadKSY(ksyFileName, metrics);
+        show(newKsyClass, construct(newKsyClass, dataFileName), Collections.<List<String>>emptyList());
+    }
+
+    /**
+     * Finishes loading of files, started by {@link StartupPipeline}: shows the data as soon
+     * as it is mapped, then waits for the spec and starts parsing.
+     */
+    public void loadAll(String dataFileName, String ksyFileName, final StartupPipeline startup) throws Exception {
+        this.dataFileName = dataFileName;
+        this.ksyFileName = ksyFileName;
+        final KaitaiStream io = startup.data();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    showData(io);
+                    startup.reached(Metrics.STARTUP_DATA);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        final Class<?> newKsyClass = startup.spec();
+        show(newKsyClass, construct(newKsyClass, io), Collections.<List<String>>emptyList());
+        // Finish after the root node, added by the code above, is painted
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                startup.finish();
+            }
+        });
+    }
+
+    /**
+     * Parses the file with already compiled spec. Allows to parse several files
+     * with the same classes, so their structs could be compared.
+     * @param ksyClass Top-level class of the spec, returned by {@link #loadKSY}
+     */
+    public void loadAll(String dataFileName, Class<?> ksyClass) throws Exception {
+        this.dataFileName = dataFileName;
+        show(ksyClass, construct(ksyClass, dataFileName), Collections.<List<String>>emptyList());
+    }
+
+    public void addParseListener(ParseListener listener) {
+        parseListeners.add(listener);
+    }
+
+    /**
+     * Starts watching the loaded files and reloads them when they change. Change
+     * of the data file only re-parses it with already loaded classes, change of the
+     * spec recompiles it first. Nodes, that were expanded, are expanded again
+     * in the new tree, if they still exist.
+     */
+    public void watch() throws IOException {
+        watcher = new FileWatcher(dataFileName, ksyFileName, new FileWatcher.Listener() {
+            @Override
+            public void dataChanged() {
+                reload(false);
+            }
+
+            @Override
+            public void specChanged() {
+                reload(true);
+            }
+        });
+        watcher.start();
+    }
+
+    /**
+     * Stops watching and parsing the files and releases the loaded data file.
+     * Must be called from the event dispatch thread.
+     */
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (parser != null) {
+            parser.stop();
+        }
+        scheduler.shutdown();
+        if (shownData != null) {
+            shownData.close();
+        }
+        if (struct != null) {
+            closeLater(struct._io());
+        }
+    }
+
+    /** Reloads the data file. Called in the watcher thread. */
+    private void reload(boolean recompile) {
+        try {
+            final List<List<String>> expanded = new ArrayList<>();
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    expanded.addAll(expandedPaths());
+                }
+            });
+            final Class<?> newKsyClass = recompile ? loadKSY(ksyFileName, metrics) : ksyClass;
+            show(newKsyClass, construct(newKsyClass, dataFileName), expanded);
+        } catch (final Exception e) {
+            e.printStackTrace();
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    showFailure("Reload failed: " + e);
+                }
+            });
+        }
+    }
+
+    /** Shows the message instead of progress of parsing. */
+    private void showFailure(String message) {
+        progress.setVisible(true);
+        progress.setString(message);
+    }
+
+    /** Replaces the shown struct with the new one in the event dispatch thread. */
+    private void show(final Class<?> newKsyClass, final KaitaiStruct newStruct, final List<List<String>> expanded) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadStruct(newKsyClass, newStruct, expanded);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    showFailure("Load failed: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the stream in background, because it waits until the parser of the stream,
+     * which could still be running, stops.
+     */
+    private static void closeLater(final KaitaiStream io) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    io.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "kaitai-close");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns names of nodes on the paths to all expanded nodes, excluding the root.
+     * Paths are ordered so that parents go before their children.
+     */
+    private List<List<String>> expandedPaths() {
+        final List<List<String>> result = new ArrayList<>();
+        final DataNode root = model.getRoot();
+        if (root == null) return result;
+
+        final Enumeration<TreePath> expanded = tree.getExpandedDescendants(new TreePath(root));
+        if (expanded == null) return result;
+        while (expanded.hasMoreElements()) {
+            final Object[] nodes = expanded.nextElement().getPath();
+            final List<String> names = new ArrayList<>(nodes.length - 1);
+            for (int i = 1; i < nodes.length; ++i) {
+                names.add(((DataNode) nodes[i]).name());
+            }
+            result.add(names);
+        }
+        Collections.sort(result, new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> a, List<String> b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        return result;
+    }
+
+    /** Expands nodes of the new tree, that have the same names as previously expanded ones. */
+    private void restoreExpanded(List<List<String>> paths) {
+        for (final List<String> names : paths) {
+            new Descent(names.size()) {
+                @Override
+                DataNode child(DataNode node, int step) {
+                    return node.childForName(names.get(step));
+                }
+
+                @Override
+                void reached(TreePath path, boolean complete) {
+                    if (complete) {
+                        tree.expandPath(path);
+                    }
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Walk down the tree from the root. Every node on the way is explored by the scheduler
+     * in background, and the walk continues in the event dispatch thread, when children
+     * of the node are attached. The walk stops if the tree is replaced meanwhile.
+     */
+    private abstract class Descent {
+        private final DataNode root = model.getRoot();
+        private final int steps;
+
+        Descent(int steps) {
+            this.steps = steps;
+        }
+
+        void start() {
+            if (root != null) {
+                next(root, new TreePath(root), 0);
+            }
+        }
+
+        /** Finds child of the explored node for the step, or returns {@code null} if there is no such child. */
+        abstract DataNode child(DataNode node, int step);
+
+        /**
+         * Called with the path to the deepest found node.
+         * @param complete {@code true} if nodes for all steps were found
+         */
+        abstract void reached(TreePath path, boolean complete);
+
+        /** Returns {@code true} if the walk goes to the next step after the child, {@code false} if it stays on the step. */
+        boolean consumes(DataNode child) {
+            return true;
+        }
+
+        /** Returns {@code true} if results of the walk are not needed anymore. */
+        boolean isStale() {
+            return false;
+        }
+
+        private void next(final DataNode node, final TreePath path, final int step) {
+            if (step == steps) {
+                reached(path, true);
+                return;
+            }
+            scheduler.whenExplored(node, new Runnable() {
+                @Override
+                public void run() {
+                    if (model.getRoot() != root || isStale()) return;
+                    final DataNode child = child(node, step);
+                    if (child == null) {
+                        reached(path, false);
+                        return;
+                    }
+                    next(child, path.pathByAddingChild(child), consumes(child) ? step + 1 : step);
+                }
+            });
+        }
     }
 
-    private void loadStruct() throws IOException {
-        struct._io().seek(0);
-        byte[] buf = struct._io().readBytesFull();
-        hexEditor.setData(new SimpleDataProvider(buf));
+    /** Shows data of the stream in the hex view, unless it is already shown. */
+    private void showData(KaitaiStream io) throws IOException {
+        if (io == shownIo) return;
+        shownIo = io;
+        final long start = metrics.start();
+        // Reuse buffers, already mapped by the stream, instead of copying the whole file to the heap
+        final MappedDataProvider data;
+        if (io instanceof MappedKaitaiStream) {
+            data = new MappedDataProvider((MappedKaitaiStream) io);
+        } else if (io instanceof ByteBufferKaitaiStream) {
+            data = new MappedDataProvider(((ByteBufferKaitaiStream) io).asRoBuffer());
+        } else {
+            data = new MappedDataProvider(dataFileName);
+        }
+        hexEditor.setData(data);
         hexEditor.setDefinitionStatus(JHexView.DefinitionStatus.DEFINED);
+        if (shownData != null) {
+            shownData.close();
+        }
+        shownData = data;
+        metrics.stop(Metrics.HEX_LOAD, start);
+    }
+
+    /**
+     * Replaces the shown struct with the new one and starts parsing it. The previous
+     * parser is stopped and the stream of the previous struct is closed, which makes
+     * the parser fail on its next read. Must be called from the event dispatch thread.
+     */
+    private void loadStruct(Class<?> newKsyClass, KaitaiStruct newStruct, final List<List<String>> expanded) throws IOException {
+        final KaitaiStruct oldStruct = struct;
+        if (parser != null) {
+            parser.stop();
+            scheduler.cancel(model.getRoot());
+        }
+        ksyClass = newKsyClass;
+        struct = newStruct;
+        showData(newStruct._io());
 
         final DataNode root = new DataNode(0, struct, "[root]");
+        final IncrementalParser newParser = new IncrementalParser(struct, root, model, progress, metrics);
+        final SearchIndex search = new SearchIndex();
+        final OffsetIndex index = new OffsetIndex(search);
+        offsetIndex = index;
+        final CoverageMap coverage = new CoverageMap();
+        // Offset index is filled while parsing, the rest is built after it; idle thread stops by itself
+        final ThreadPoolExecutor indexer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "kaitai-index");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }
+        );
+        indexer.allowCoreThreadTimeOut(true);
+        newParser.setOnFieldsParsed(new IncrementalParser.FieldsListener() {
+            @Override
+            public void fieldsParsed(final List<String> names) {
+                indexer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        index.add(root.getStruct(), names);
+                    }
+                });
+            }
+        });
+        newParser.setOnFinished(new Runnable() {
+            @Override
+            public void run() {
+                restoreExpanded(expanded);
+                for (final ParseListener l : parseListeners) {
+                    l.parsed(root.getStruct(), newParser.error());
+                }
+                indexer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long indexStart = metrics.start();
+                        try {
+                            index.build(root.getStruct());
+                            metrics.stop(Metrics.SEARCH_INDEX, indexStart);
+                        } catch (RuntimeException e) {
+                            // Searches report the failure, coverage is still useful
+                            e.printStackTrace();
+                        }
+                        final long coverageStart = metrics.start();
+                        coverage.build(root.getStruct());
+                        metrics.stop(Metrics.COVERAGE, coverageStart);
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                // Another file could be loaded meanwhile
+                                if (offsetIndex == index) {
+                                    minimap.setCoverage(coverage);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        parser = newParser;
         model.setRoot(root);
-        root.explore(model /*, progressListener */, null);
+        searchPanel.setIndex(search);
+        minimap.setCoverage(null);
+        parser.start();
+
+        if (oldStruct != null && oldStruct._io() != newStruct._io()) {
+            closeLater(oldStruct._io());
+        }
+    }
+
+    /**
+     * Selects the innermost field, that covers the offset, expanding the tree
+     * down to it. Does nothing if offset is not covered by any indexed field.
+     */
+    private void selectFieldAt(long offset) {
+        final OffsetIndex.Field field = offsetIndex.find(offset);
+        if (field != null) {
+            selectField(field);
+        }
+    }
+
+    /** Selects bytes in the hex view and moves its caret to their start. */
+    private void selectRange(long start, long end) {
+        hexEditor.getSelectionModel().clearSelection();
+        // Selection in nibbles, see KaitaiTreeListener.valueChanged
+        if (2*end - 1 <= Integer.MAX_VALUE) {
+            hexEditor.getSelectionModel().addSelectionInterval((int) (2*start), (int) (2*end - 1));
+        }
+        moveCaret(start);
+    }
+
+    /**
+     * Moves the hex view caret to the offset, or to the last byte, that hex view can
+     * show, if the offset is beyond it (see {@link MappedDataProvider#getDataLength}).
+     */
+    private void moveCaret(long offset) {
+        final int length = shownData != null ? shownData.getDataLength() : 0;
+        if (length > 0) {
+            hexEditor.setCurrentOffset(Math.min(offset, length - 1));
+        }
+    }
+
+    /** Selects node of the field and moves the hex view caret to its start. */
+    void jumpTo(OffsetIndex.Field field) {
+        selectField(field);
+        if (field.start() >= 0) {
+            moveCaret(field.start());
+        }
+    }
+
+    /**
+     * Selects node of the field, expanding the tree down to it. Nodes on the way are
+     * explored in background, so the node is selected later, unless another field
+     * is selected meanwhile.
+     */
+    private void selectField(OffsetIndex.Field field) {
+        final List<OffsetIndex.Field> steps = field.path();
+        final int id = ++navigation;
+        new Descent(steps.size()) {
+            @Override
+            DataNode child(DataNode node, int step) {
+                final OffsetIndex.Field f = steps.get(step);
+                return f.attrName() != null ? node.childForAttr(f.attrName()) : node.childForIndex(f.arrayIdx());
+            }
+
+            @Override
+            boolean consumes(DataNode child) {
+                // Descend through buckets of huge lists
+                return !child.isBucket();
+            }
+
+            @Override
+            boolean isStale() {
+                return id != navigation;
+            }
+
+            @Override
+            void reached(TreePath path, boolean complete) {
+                tree.setSelectionPath(path);
+                tree.scrollPathToVisible(path);
+            }
+        }.start();
     }
 
     public JSplitPane getSplitPane() {
         return splitPane;
     }
 
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Compiles a given .ksy file into Java class source.
      * @param ksyFileName
      * @return Java class source code as a string
      */
-    private static String compileKSY(String ksyFileName) {
+    static String compileKSY(String ksyFileName) {
         KSVersion.current_$eq(Version.version());
         final ClassSpec spec = JavaKSYParser.fileNameToSpec(ksyFileName);
         final JavaClassSpecs specs = new JavaClassSpecs(null, null, spec);
 
-        final RuntimeConfig config = new RuntimeConfig(
-            false,// autoRead - do not call `_read` automatically in constructor
-            true, // readStoresPos - enable generation of a position info which is accessed in DebugAids later
-            true, // opaqueTypes
-            null, // cppConfig
-            null, // goPackage
-            new JavaRuntimeConfig(
-                DEST_PACKAGE,
-                // Class to be invoked in `fromFile` helper methods
-                "io.kaitai.struct.ByteBufferKaitaiStream",
-                // Exception class expected to be thrown on end-of-stream errors
-                "java.nio.BufferUnderflowException"
-            ),
-            null, // dotNetNamespace
-            null, // phpNamespace
-            null, // pythonPackage
-            null, // nimModule
-            null  // nimOpaque
-        );
-
-        Main.importAndPrecompile(specs, config).value();
-        final CompileLog.SpecSuccess result = Main.compile(specs, spec, JavaCompiler$.MODULE$, config);
+        Main.importAndPrecompile(specs, CONFIG).value();
+        final CompileLog.SpecSuccess result = Main.compile(specs, spec, JavaCompiler$.MODULE$, CONFIG);
         return result.files().apply(0).contents();
     }
 
     /**
-     * Compiles Java source (given as a string) into bytecode and loads it into current JVM.
-     * @param javaSrc Java source as a string
-     * @return Class reference, which can be used to instantiate the class, call its
-     * static methods, etc.
+     * Compiles a given .ksy file into bytecode, using {@link #CACHE} to skip
+     * compilation if the same spec was already compiled before.
+     * @param ksyFileName
+     * @param metrics Receiver of compilation timings
+     * @return Top-level class of the spec, loaded into current JVM
      * @throws Exception
      */
-    private void parseFileWithKSY(String ksyFileName, String binaryFileName) throws Exception {
+    static Class<?> loadKSY(String ksyFileName, Metrics metrics) throws Exception {
+        final String key = CompiledSpecCache.computeKey(ksyFileName, CONFIG.toString());
+        final CompiledSpecCache.Entry cached = CACHE.get(key);
+        if (cached != null) {
+            metrics.add(Metrics.CACHE_HITS, 1);
+            return cached.load(VisualizerPanel.class.getClassLoader());
+        }
+        metrics.add(Metrics.CACHE_MISSES, 1);
+        warmUpJavac(metrics);
+
+        long start = metrics.start();
         final String javaSrc = compileKSY(ksyFileName);
+        metrics.stop(Metrics.COMPILE_KSY, start);
         final Matcher m = TOP_CLASS_NAME_AND_PARAMETERS.matcher(javaSrc);
         if (!m.find()) {
             throw new RuntimeException("Unable to find top-level class in generated .java");
@@ -176,19 +761,55 @@ public class VisualizerPanel extends JPanel {
             paramNames.add(p.group(1));
         }
 
-        final Class<?> ksyClass = InMemoryJavaCompiler.newInstance().compile(DEST_PACKAGE + "." + m.group(1), javaSrc);
-        struct = construct(ksyClass, paramNames, binaryFileName);
+        start = metrics.start();
+        final String className = DEST_PACKAGE + "." + m.group(1);
+        final CompiledSpecCache.Entry entry = new CompiledSpecCache.Entry(
+            className,
+            paramNames,
+            JavaSourceCompiler.compile(className, javaSrc)
+        );
+        final Class<?> ksyClass = entry.load(VisualizerPanel.class.getClassLoader());
+        metrics.stop(Metrics.COMPILE_JAVA, start);
+        CACHE.put(key, entry);
+        return ksyClass;
+    }
+
+    /**
+     * Compiles a trivial class in a background thread, so javac is loaded and warmed up
+     * while the Scala compiler translates the spec. Does nothing after the first call.
+     */
+    static void warmUpJavac(final Metrics metrics) {
+        if (!JAVAC_WARMED_UP.compareAndSet(false, true)) return;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long start = metrics.start();
+                try {
+                    JavaSourceCompiler.compile(DEST_PACKAGE + ".Warmup", "package " + DEST_PACKAGE + "; class Warmup {}");
+                } catch (Exception e) {
+                    // Real compilation will report the problem
+                }
+                metrics.stop(Metrics.JAVAC_WARMUP, start);
+            }
+        }, "kaitai-javac-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        // Find and run "_read" that does actual parsing
-        // TODO: wrap this in try-catch block
-        Method readMethod = ksyClass.getMethod("_read");
-        readMethod.invoke(struct);
+    static KaitaiStruct construct(Class<?> ksyClass, String binaryFileName) throws Exception {
+        final MappedKaitaiStream io = new MappedKaitaiStream(binaryFileName);
+        try {
+            return construct(ksyClass, io);
+        } catch (Exception e) {
+            io.close();
+            throw e;
+        }
     }
-    private static KaitaiStruct construct(Class<?> ksyClass, List<String> paramNames, String binaryFileName) throws Exception {
+    static KaitaiStruct construct(Class<?> ksyClass, KaitaiStream io) throws Exception {
         final Constructor<?> c = findConstructor(ksyClass);
         final Class<?>[] types = c.getParameterTypes();
         final Object[] args = new Object[types.length];
-        args[0] = new ByteBufferKaitaiStream(binaryFileName);
+        args[0] = io;
         for (int i = 3; i < args.length; ++i) {
             args[i] = getDefaultValue(types[i]);
         }
@@ -220,33 +841,61 @@ public class VisualizerPanel extends JPanel {
         return null;
     }
 
-    public class KaitaiTreeListener implements TreeWillExpandListener, TreeSelectionListener {
+    public class KaitaiTreeListener implements TreeWillExpandListener, TreeExpansionListener, TreeSelectionListener {
         @Override
         public void treeWillExpand(TreeExpansionEvent event) throws ExpandVetoException {
             TreePath path = event.getPath();
             if (path.getLastPathComponent() instanceof DataNode) {
                 DataNode node = (DataNode) path.getLastPathComponent();
-                node.explore(model /* , progressListener */, null);
+                scheduler.explore(node);
             }
         }
 
         @Override
         public void treeWillCollapse(TreeExpansionEvent event) throws ExpandVetoException {
+            TreePath path = event.getPath();
+            if (path.getLastPathComponent() instanceof DataNode) {
+                scheduler.cancel((DataNode) path.getLastPathComponent());
+            }
+        }
+
+        @Override
+        public void treeExpanded(TreeExpansionEvent event) {}
+
+        @Override
+        public void treeCollapsed(TreeExpansionEvent event) {
+            final Object last = event.getPath().getLastPathComponent();
+            // Root is populated by IncrementalParser, so keep it
+            if (last instanceof DataNode && last != model.getRoot()) {
+                // Free collapsed subtree, it will be recreated on the next expansion
+                final DataNode node = (DataNode) last;
+                node.discardChildren();
+                model.nodeStructureChanged(node);
+            }
         }
 
         @Override
         public void valueChanged(TreeSelectionEvent event) {
             hexEditor.getSelectionModel().clearSelection();
-            for (final TreePath path : tree.getSelectionPaths()) {
+            final TreePath[] paths = tree.getSelectionPaths();
+            // Selection is cleared, e.g. when the tree is replaced after reload
+            if (paths == null) return;
+            for (final TreePath path : paths) {
                 final Object selected = path.getLastPathComponent();
                 if (!(selected instanceof DataNode)) continue;
 
                 final DataNode node = (DataNode)selected;
-                final Integer start = node.posStart();
-                final Integer end   = node.posEnd();
-                if (start == null || end == null) continue;
-                // Selection in nibbles, so multiply by 2
-                hexEditor.getSelectionModel().addSelectionInterval(2*start, 2*end-1);
+                scheduler.prioritize(node);
+                final long start = node.posStart();
+                final long end   = node.posEnd();
+                if (start == DataNode.NO_POS || end == DataNode.NO_POS) continue;
+                // Selection in nibbles, so multiply by 2. Selection model is limited
+                // by int, so for ranges beyond 1 GiB only the caret is moved
+                if (2*end - 1 <= Integer.MAX_VALUE) {
+                    hexEditor.getSelectionModel().addSelectionInterval((int) (2*start), (int) (2*end - 1));
+                } else {
+                    moveCaret(start);
+                }
             }
         }
     }
@@ -0,0 +1,102 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchRunnerTest {
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("batch").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        for (final File f : BatchRunner.listFiles(dir)) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void parsesFile() throws Exception {
+        final BatchRunner.Result result = runner(TestStructs.Sample.class).parse(write("ok", TestStructs.sampleBytes(3, 0)));
+
+        assertTrue(result.isSuccess());
+        assertEquals(-1, result.errorOffset());
+    }
+
+    @Test
+    public void reportsFieldAndOffsetOfError() throws Exception {
+        // Record 3 has only one byte of its field "b"
+        final byte[] data = Arrays.copyOf(TestStructs.sampleBytes(5, 0), TestStructs.recordOffset(3) + 3);
+        final BatchRunner.Result result = runner(TestStructs.Sample.class).parse(write("truncated", data));
+
+        assertEquals("records[3].b", result.errorPath());
+        assertEquals(TestStructs.recordOffset(3) + 2, result.errorOffset());
+    }
+
+    @Test
+    public void reportsStackOverflowAsFailure() throws Exception {
+        final BatchRunner.Result result = runner(Deep.class).parse(write("deep", new byte[1]));
+
+        assertTrue(result.error() instanceof StackOverflowError);
+        // Deep has no position info, so only its own position is known
+        assertEquals("", result.errorPath());
+        assertEquals(0, result.errorOffset());
+    }
+
+    @Test
+    public void countsFailedFiles() throws Exception {
+        write("a", TestStructs.sampleBytes(1, 0));
+        write("b", new byte[3]);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        final int failed = new BatchRunner(TestStructs.Sample.class, new PrintStream(out, true, "UTF-8"))
+            .run(BatchRunner.listFiles(dir), 2);
+
+        assertEquals(1, failed);
+        assertTrue(out.toString("UTF-8").contains("# files: 2, failed: 1"));
+    }
+
+    @Test
+    public void rejectsInvalidCountOfThreads() throws Exception {
+        assertEquals(2, BatchRunner.execute(new String[] {"a.ksy", dir.getPath(), "many"}));
+        assertEquals(2, BatchRunner.execute(new String[] {"a.ksy", dir.getPath(), "0"}));
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static BatchRunner runner(Class<?> ksyClass) throws NoSuchMethodException {
+        return new BatchRunner(ksyClass, new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    /** Struct, compiled without position info, whose parsing recurses endlessly. */
+    static class Deep extends KaitaiStruct {
+        Deep(KaitaiStream _io, KaitaiStruct _parent, Deep _root) {
+            super(_io);
+        }
+
+        public void _read() {
+            new Deep(_io, this, null)._read();
+        }
+    }
+}
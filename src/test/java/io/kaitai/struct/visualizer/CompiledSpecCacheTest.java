@@ -0,0 +1,108 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CompiledSpecCacheTest {
+    private File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("cache").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        delete(dir);
+    }
+
+    @Test
+    public void keyDependsOnImportsAndConfig() throws IOException {
+        final String main = write("main.ksy", "meta:\n  id: main\n  imports:\n    - sub\n    - /common/absolute\n").getPath();
+        write("sub.ksy", "meta:\n  id: sub\n");
+        final String key = CompiledSpecCache.computeKey(main, "pos");
+
+        assertEquals(key, CompiledSpecCache.computeKey(main, "pos"));
+        assertFalse(key.equals(CompiledSpecCache.computeKey(main, "nopos")));
+        // Absolute imports are not followed
+        assertEquals(2, CompiledSpecCache.specFiles(main).size());
+
+        write("sub.ksy", "meta:\n  id: sub\nseq:\n  - id: a\n    type: u1\n");
+        assertFalse(key.equals(CompiledSpecCache.computeKey(main, "pos")));
+    }
+
+    @Test
+    public void returnsStoredEntry() {
+        final CompiledSpecCache cache = new CompiledSpecCache(new File(dir, "cache"), Long.MAX_VALUE);
+        assertNull(cache.get("k"));
+
+        cache.put("k", entry("Main", Arrays.asList("a", "b"), 10));
+        final CompiledSpecCache.Entry entry = cache.get("k");
+
+        assertEquals("Main", entry.className());
+        assertEquals(Arrays.asList("a", "b"), entry.paramNames());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() {
+        final File cacheDir = new File(dir, "cache");
+        final CompiledSpecCache cache = new CompiledSpecCache(cacheDir, 3000);
+        cache.put("old", entry("Old", Collections.<String>emptyList(), 1000));
+        cache.put("used", entry("Used", Collections.<String>emptyList(), 1000));
+        new File(cacheDir, "old").setLastModified(System.currentTimeMillis() - 20000);
+        new File(cacheDir, "used").setLastModified(System.currentTimeMillis() - 10000);
+
+        cache.put("new", entry("New", Collections.<String>emptyList(), 1000));
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("used"));
+        assertNotNull(cache.get("new"));
+    }
+
+    @Test
+    public void keepsStoredEntryBiggerThanLimit() {
+        final CompiledSpecCache cache = new CompiledSpecCache(new File(dir, "cache"), 10);
+        cache.put("old", entry("Old", Collections.<String>emptyList(), 100));
+        cache.put("big", entry("Big", Collections.<String>emptyList(), 100));
+
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("big"));
+    }
+
+    private File write(String name, String text) throws IOException {
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Entry with one class of the given size; bytecode is never loaded by these tests. */
+    private static CompiledSpecCache.Entry entry(String className, List<String> params, int size) {
+        return new CompiledSpecCache.Entry(className, params, Collections.singletonMap(className, new byte[size]));
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File c : children) {
+                delete(c);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,77 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoverageMapTest {
+    @Test
+    public void fullyParsedInputIsOneRun() {
+        final CoverageMap map = build(TestStructs.parseSample(TestStructs.sampleBytes(3, 0)));
+
+        assertTrue(map.isComplete());
+        assertEquals(TestStructs.sampleSize(3), map.size());
+        assertEquals(TestStructs.sampleSize(3), map.coveredBytes());
+        assertEquals(1, map.runCount());
+        assertEquals(-1, map.nextGap(0));
+    }
+
+    @Test
+    public void trailingBytesAreGap() {
+        final int parsed = TestStructs.sampleSize(3);
+        final CoverageMap map = build(TestStructs.parseSample(TestStructs.sampleBytes(3, 10)));
+
+        assertEquals(parsed, map.coveredBytes());
+        assertEquals(1, map.runCount());
+        assertTrue(map.isCovered(parsed - 1));
+        assertFalse(map.isCovered(parsed));
+        assertEquals(parsed, map.nextGap(0));
+        assertEquals(parsed + 10, map.gapEnd(parsed));
+    }
+
+    @Test
+    public void fieldWithoutPositionIsGap() {
+        final TestStructs.Sample sample = TestStructs.parseSample(TestStructs.sampleBytes(3, 0));
+        sample._attrStart.remove("count");
+        final CoverageMap map = build(sample);
+
+        assertEquals(2, map.runCount());
+        assertEquals(TestStructs.sampleSize(3) - 4, map.coveredBytes());
+        assertTrue(map.isCovered(1));
+        assertFalse(map.isCovered(2));
+        assertFalse(map.isCovered(5));
+        assertTrue(map.isCovered(6));
+        assertEquals(2, map.nextGap(0));
+        assertEquals(6, map.gapEnd(2));
+    }
+
+    @Test
+    public void rangesOfManyTasksAreMerged() {
+        // Elements of long lists are walked by several tasks, their runs touch each other
+        final int count = 10000;
+        final CoverageMap map = build(TestStructs.parseSample(TestStructs.sampleBytes(count, 0)));
+
+        assertEquals(1, map.runCount());
+        assertEquals(TestStructs.sampleSize(count), map.coveredBytes());
+        assertTrue(map.isCovered(TestStructs.recordOffset(count / 2) + 1));
+    }
+
+    @Test
+    public void fillReportsCoveredShares() {
+        final int parsed = TestStructs.sampleSize(3);
+        final CoverageMap map = build(TestStructs.parseSample(TestStructs.sampleBytes(3, parsed)));
+        final float[] parts = new float[4];
+        map.fill(parts);
+
+        assertArrayEquals(new float[] {1, 1, 0, 0}, parts, 0);
+    }
+
+    private static CoverageMap build(TestStructs.Sample sample) {
+        final CoverageMap map = new CoverageMap();
+        map.build(sample);
+        return map;
+    }
+}
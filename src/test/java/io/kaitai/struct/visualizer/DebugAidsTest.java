@@ -0,0 +1,70 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DebugAidsTest {
+    @Test
+    public void readsPositionsOfElements() throws NoSuchFieldException {
+        final DebugAids aids = DebugAids.fromStruct(TestStructs.parseSample(TestStructs.sampleBytes(3, 0)));
+
+        assertEquals(2, aids.getStart("count"));
+        assertEquals(6, aids.getEnd("count"));
+        assertEquals(TestStructs.recordOffset(2), aids.getStart("records", 2));
+        assertEquals(TestStructs.recordOffset(3), aids.getEnd("records", 2));
+        assertEquals(-1, aids.getStart("records", 3));
+        assertEquals(-1, aids.getStart("missing", 0));
+    }
+
+    @Test
+    public void lastPositionBelow4GiBIsKnown() throws NoSuchFieldException {
+        final TestStructs.Sample sample = TestStructs.parseSample(TestStructs.sampleBytes(3, 0));
+        // Position 0xFFFFFFFF, stored by generated code as int
+        sample._arrStart.get("records").set(1, -1);
+        sample._arrStart.get("records").set(2, null);
+        final DebugAids aids = DebugAids.fromStruct(sample);
+
+        assertEquals(0xFFFFFFFFL, aids.getStart("records", 1));
+        assertEquals(-1, aids.getStart("records", 2));
+    }
+
+    @Test
+    public void readsPositionsWhileStructIsParsed() throws Exception {
+        final int count = 200000;
+        final TestStructs.Sample sample = new TestStructs.Sample(new ByteBufferKaitaiStream(TestStructs.sampleBytes(count, 0)));
+        StructMetadata.of(sample.getClass()).sharePositions(sample, new ConcurrentLinkedQueue<String>());
+        final DebugAids aids = DebugAids.fromStruct(sample);
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread parser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample._read();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        parser.start();
+        // Every known position is the right one, unknown ones are -1
+        while (parser.isAlive()) {
+            for (int i = 0; i < count; i += 997) {
+                final long start = aids.getStart("records", i);
+                if (start != -1) {
+                    assertEquals(TestStructs.recordOffset(i), start);
+                }
+            }
+        }
+        parser.join();
+
+        assertNull(error.get());
+        assertEquals(TestStructs.recordOffset(count - 1), aids.getStart("records", count - 1));
+    }
+}
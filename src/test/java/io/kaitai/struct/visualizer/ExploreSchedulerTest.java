@@ -0,0 +1,95 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExploreSchedulerTest {
+    private final DataTreeModel model = new DataTreeModel();
+    private final Metrics metrics = new Metrics();
+    private ExploreScheduler scheduler;
+    private DataNode node;
+
+    @Before
+    public void createScheduler() {
+        scheduler = new ExploreScheduler(model, metrics, 2);
+        node = new DataNode(0, TestStructs.parseSample(TestStructs.sampleBytes(3, 0)), "sample");
+        model.setRoot(node);
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.shutdown();
+            }
+        });
+    }
+
+    @Test
+    public void coalescesRequestsForSameNode() throws Exception {
+        final CountDownLatch explored = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.explore(node);
+                scheduler.explore(node);
+                scheduler.whenExplored(node, new Runnable() {
+                    @Override
+                    public void run() {
+                        explored.countDown();
+                    }
+                });
+                scheduler.explore(node);
+            }
+        });
+
+        assertTrue(explored.await(10, TimeUnit.SECONDS));
+        assertEquals(1, metrics.timing(Metrics.EXPLORE).count());
+        // magic, count, records, tail
+        assertEquals(4, node.getChildCount());
+    }
+
+    @Test
+    public void exploredNodeIsNotExploredAgain() throws Exception {
+        final CountDownLatch explored = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.whenExplored(node, new Runnable() {
+                    @Override
+                    public void run() {
+                        explored.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(explored.await(10, TimeUnit.SECONDS));
+
+        final AtomicBoolean calledAtOnce = new AtomicBoolean();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.explore(node);
+                scheduler.whenExplored(node, new Runnable() {
+                    @Override
+                    public void run() {
+                        calledAtOnce.set(true);
+                    }
+                });
+            }
+        });
+
+        assertTrue(calledAtOnce.get());
+        assertEquals(1, metrics.timing(Metrics.EXPLORE).count());
+    }
+}
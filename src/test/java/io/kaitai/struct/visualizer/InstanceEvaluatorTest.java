@@ -0,0 +1,119 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstanceEvaluatorTest {
+    /** Budget of the tests; instances, that exceed it, run for much longer. */
+    private static final long TIMEOUT_MILLIS = 100;
+
+    @Test
+    public void calculatesInstance() throws Exception {
+        final Lazy lazy = new Lazy(new ByteBufferKaitaiStream(new byte[] {0, 42}));
+        final InstanceEvaluator.Outcome outcome = new InstanceEvaluator(TIMEOUT_MILLIS, Long.MAX_VALUE)
+            .evaluate(lazy, Lazy.class.getMethod("second"));
+
+        assertNull(outcome.failure());
+        assertEquals(42, outcome.value());
+    }
+
+    @Test
+    public void failsSlowInstanceAndRemembersFailure() throws Exception {
+        final Lazy lazy = new Lazy(new ByteBufferKaitaiStream(new byte[0]));
+        final InstanceEvaluator evaluator = new InstanceEvaluator(TIMEOUT_MILLIS, Long.MAX_VALUE);
+
+        final InstanceEvaluator.Outcome outcome = evaluator.evaluate(lazy, Lazy.class.getMethod("slow"));
+        assertEquals("[timed out after " + TIMEOUT_MILLIS + " ms]", outcome.failure());
+        assertTrue(outcome.nanos() >= TIMEOUT_MILLIS * 1000000);
+
+        final long start = System.nanoTime();
+        assertEquals(outcome.failure(), evaluator.evaluate(lazy, Lazy.class.getMethod("slow")).failure());
+        assertTrue(System.nanoTime() - start < TIMEOUT_MILLIS * 1000000);
+    }
+
+    @Test
+    public void failsGreedyInstance() throws Exception {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return;
+
+        final Lazy lazy = new Lazy(new ByteBufferKaitaiStream(new byte[0]));
+        final InstanceEvaluator.Outcome outcome = new InstanceEvaluator(10000, 1024 * 1024)
+            .evaluate(lazy, Lazy.class.getMethod("greedy"));
+
+        assertEquals("[allocated more than " + 1024 * 1024 + " bytes]", outcome.failure());
+    }
+
+    @Test
+    public void busyFileIsTriedAgain() throws Exception {
+        final Lazy lazy = new Lazy(new ByteBufferKaitaiStream(new byte[] {0, 42}));
+        final InstanceEvaluator evaluator = new InstanceEvaluator(TIMEOUT_MILLIS, Long.MAX_VALUE);
+
+        final ReentrantLock lock = StreamLocks.ofFile(lazy);
+        lock.lock();
+        try {
+            final InstanceEvaluator.Outcome busy = evaluator.evaluate(lazy, Lazy.class.getMethod("second"));
+            assertTrue(busy.failure(), busy.failure().startsWith("[file is busy"));
+        } finally {
+            lock.unlock();
+        }
+
+        assertEquals(42, evaluator.evaluate(lazy, Lazy.class.getMethod("second")).value());
+    }
+
+    /**
+     * <pre>
+     * instances:
+     *   second:
+     *     pos: 1
+     *     type: u1
+     * </pre>
+     * and instances, that exceed the budget.
+     */
+    static class Lazy extends KaitaiStruct {
+        Lazy(KaitaiStream _io) {
+            super(_io);
+        }
+
+        private Integer second;
+        private volatile byte[] chunk;
+
+        public Integer second() {
+            if (this.second != null)
+                return this.second;
+            long _pos = this._io.pos();
+            this._io.seek(1);
+            this.second = this._io.readU1();
+            this._io.seek(_pos);
+            return this.second;
+        }
+
+        /** Spins until interrupted, but no longer than 10 seconds. */
+        public Integer slow() {
+            final long end = System.nanoTime() + 10000000000L;
+            while (!Thread.currentThread().isInterrupted() && System.nanoTime() < end) {
+                // busy
+            }
+            return 0;
+        }
+
+        /** Allocates until interrupted, but no longer than 10 seconds. */
+        public Integer greedy() {
+            final long end = System.nanoTime() + 10000000000L;
+            byte[] chunk = null;
+            while (!Thread.currentThread().isInterrupted() && System.nanoTime() < end) {
+                // Kept in the field, so allocation is not optimized away
+                chunk = new byte[64 * 1024];
+                this.chunk = chunk;
+            }
+            return chunk != null ? chunk.length : 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonExporterTest {
+    @Test
+    public void escapesStrings() throws IOException {
+        final TestStructs.Text text = TestStructs.parseText(textBytes("q\"b\\s/\n\r\t\u0001\u001f\u00e9\u263a", new byte[0]));
+
+        assertEquals(
+            "{\"start\":0,\"end\":17,\"value\":{"
+                + "\"name\":{\"start\":0,\"end\":17,\"value\":\"q\\\"b\\\\s/\\n\\r\\t\\u0001\\u001f\u00e9\u263a\"},"
+                + "\"data\":{\"start\":17,\"end\":17,\"value\":\"\"}}}\n",
+            export(text, false, JsonExporter.BytesFormat.HEX, -1)
+        );
+    }
+
+    @Test
+    public void escapesPathsAndValuesOfLines() throws IOException {
+        final TestStructs.Text text = TestStructs.parseText(textBytes("a\"b", new byte[] {(byte) 0xff, 0}));
+
+        assertEquals(
+            "{\"path\":\"name\",\"start\":0,\"end\":4,\"value\":\"a\\\"b\"}\n"
+                + "{\"path\":\"data\",\"start\":4,\"end\":6,\"value\":\"ff00\"}\n",
+            export(text, true, JsonExporter.BytesFormat.HEX, -1)
+        );
+    }
+
+    @Test
+    public void writesBase64() throws IOException {
+        assertEquals("\"value\":\"\"", dataOf(new byte[0], JsonExporter.BytesFormat.BASE64, -1));
+        assertEquals("\"value\":\"+w==\"", dataOf(new byte[] {(byte) 0xfb}, JsonExporter.BytesFormat.BASE64, -1));
+        assertEquals("\"value\":\"+/8=\"", dataOf(new byte[] {(byte) 0xfb, (byte) 0xff}, JsonExporter.BytesFormat.BASE64, -1));
+        assertEquals("\"value\":\"AQID\"", dataOf(new byte[] {1, 2, 3}, JsonExporter.BytesFormat.BASE64, -1));
+    }
+
+    @Test
+    public void truncatesBytes() throws IOException {
+        assertEquals(
+            "\"size\":4,\"truncated\":true,\"value\":\"0102\"",
+            dataOf(new byte[] {1, 2, 3, 4}, JsonExporter.BytesFormat.HEX, 2)
+        );
+        assertEquals("\"value\":null", dataOf(new byte[] {1, 2, 3, 4}, JsonExporter.BytesFormat.NONE, -1));
+    }
+
+    @Test
+    public void writesNestedStructsAndLists() throws IOException {
+        final String json = export(TestStructs.parseSample(TestStructs.sampleBytes(1, 0)), false, JsonExporter.BytesFormat.HEX, -1);
+
+        assertEquals(
+            "{\"start\":0,\"end\":14,\"value\":{"
+                + "\"magic\":{\"start\":0,\"end\":2,\"value\":51966},"
+                + "\"count\":{\"start\":2,\"end\":6,\"value\":1},"
+                + "\"records\":{\"start\":6,\"end\":10,\"value\":["
+                + "{\"start\":6,\"end\":10,\"value\":{\"a\":{\"start\":6,\"end\":8,\"value\":0},\"b\":{\"start\":8,\"end\":10,\"value\":0}}}]},"
+                + "\"tail\":{\"start\":10,\"end\":14,\"value\":{\"a\":{\"value\":4369},\"b\":{\"value\":8738}}}}}\n",
+            json
+        );
+    }
+
+    @Test
+    public void writesStructsWithoutPositionInfo() throws IOException {
+        final TestStructs.Opaque opaque = new TestStructs.Opaque(new ByteBufferKaitaiStream(new byte[] {7}));
+
+        assertEquals("{\"start\":0,\"end\":1,\"value\":{\"value\":{\"value\":7}}}\n",
+            export(opaque, false, JsonExporter.BytesFormat.HEX, -1));
+        assertEquals("{\"path\":\"value\",\"value\":7}\n",
+            export(opaque, true, JsonExporter.BytesFormat.HEX, -1));
+    }
+
+    @Test
+    public void rejectsInvalidOptions() throws Exception {
+        assertEquals(2, JsonExporter.execute(new String[] {"a.ksy", "a.bin", "--bytes=octal"}));
+        assertEquals(2, JsonExporter.execute(new String[] {"a.ksy", "a.bin", "--max-bytes=many"}));
+        assertEquals(2, JsonExporter.execute(new String[] {"a.ksy", "a.bin", "--max-bytes=-5"}));
+    }
+
+    /** Returns NDJSON line of the `data` field without the path, offsets and closing brace. */
+    private static String dataOf(byte[] data, JsonExporter.BytesFormat format, int maxBytes) throws IOException {
+        final String lines = export(TestStructs.parseText(textBytes("", data)), true, format, maxBytes);
+        final String prefix = "{\"path\":\"data\",\"start\":1,\"end\":" + (1 + data.length) + ",";
+        final int start = lines.indexOf(prefix) + prefix.length();
+        return lines.substring(start, lines.length() - 2);
+    }
+
+    private static String export(KaitaiStruct struct, boolean ndjson, JsonExporter.BytesFormat format, int maxBytes) throws IOException {
+        final StringWriter out = new StringWriter();
+        new JsonExporter(out, ndjson, format, maxBytes, false).export(struct);
+        return out.toString();
+    }
+
+    private static byte[] textBytes(String name, byte[] data) {
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        final byte[] result = new byte[encoded.length + 1 + data.length];
+        System.arraycopy(encoded, 0, result, 0, encoded.length);
+        System.arraycopy(data, 0, result, encoded.length + 1, data.length);
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedKaitaiStreamTest {
+    /** Segments of 16 bytes, so reads of few bytes cross their boundaries. */
+    private static final int SEGMENT_BITS = 4;
+    private static final int SIZE = 100;
+
+    private final byte[] data = new byte[SIZE];
+    private File file;
+    private MappedKaitaiStream io;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < SIZE; ++i) {
+            data[i] = (byte) (i + 1);
+        }
+        file = File.createTempFile("mapped", ".bin");
+        Files.write(file.toPath(), data);
+        io = new MappedKaitaiStream(file.getPath(), SEGMENT_BITS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        io.close();
+        file.delete();
+    }
+
+    @Test
+    public void readsIntegersAcrossSegments() {
+        io.seek(14L);
+        assertEquals(ByteBuffer.wrap(data, 14, 4).getInt() & 0xFFFFFFFFL, io.readU4be());
+        assertEquals(18, io.pos());
+
+        io.seek(29L);
+        assertEquals(ByteBuffer.wrap(data, 29, 8).order(ByteOrder.LITTLE_ENDIAN).getLong(), io.readS8le());
+        assertEquals(37, io.pos());
+
+        io.seek(15L);
+        assertEquals(ByteBuffer.wrap(data, 15, 2).getShort() & 0xFFFF, io.readU2be());
+    }
+
+    @Test
+    public void readsBytesAcrossSegments() {
+        io.seek(5L);
+        assertArrayEquals(slice(5, 45), io.readBytes(40));
+        assertEquals(45, io.pos());
+        assertArrayEquals(slice(45, SIZE), io.readBytesFull());
+    }
+
+    @Test
+    public void findsTerminatorInOtherSegment() {
+        io.seek(3L);
+        // data[40] == 41
+        assertArrayEquals(slice(3, 40), io.readBytesTerm(41, false, true, true));
+        assertEquals(41, io.pos());
+
+        io.seek(3L);
+        assertArrayEquals(slice(3, 41), io.readBytesTerm(41, true, false, true));
+        assertEquals(40, io.pos());
+    }
+
+    @Test
+    public void missingTerminatorReadsToEnd() {
+        io.seek(90L);
+        assertArrayEquals(slice(90, SIZE), io.readBytesTerm(0, false, true, false));
+        assertEquals(SIZE, io.pos());
+    }
+
+    @Test
+    public void copiesAcrossSegmentsWithoutMoving() {
+        io.seek(7L);
+        final byte[] copy = new byte[50];
+        io.read(10, copy, 0, 50);
+
+        assertArrayEquals(slice(10, 60), copy);
+        assertEquals(7, io.pos());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void copyPastEndFails() {
+        io.read(96, new byte[8], 0, 8);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void copyAfterCloseFails() throws IOException {
+        io.close();
+        io.read(0, new byte[1], 0, 1);
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void readPastEndFails() {
+        io.seek(98L);
+        io.readU4be();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void seekPastEndFails() {
+        io.seek(SIZE + 1L);
+    }
+
+    @Test
+    public void readAfterCloseFails() throws IOException {
+        io.close();
+        try {
+            io.readU1();
+            fail("read from closed stream");
+        } catch (BufferUnderflowException e) {
+            // Expected
+        }
+    }
+
+    private byte[] slice(int from, int to) {
+        final byte[] result = new byte[to - from];
+        System.arraycopy(data, from, result, 0, result.length);
+        return result;
+    }
+}
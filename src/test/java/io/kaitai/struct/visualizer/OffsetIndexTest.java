@@ -0,0 +1,88 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetIndexTest {
+    private final TestStructs.Sample sample = TestStructs.parseSample(TestStructs.sampleBytes(3, 2));
+
+    @Test
+    public void findsInnermostField() {
+        final OffsetIndex index = new OffsetIndex();
+        index.build(sample);
+
+        assertTrue(index.isComplete());
+        assertEquals("magic", path(index.find(0)));
+        assertEquals("count", path(index.find(5)));
+        assertEquals("records[0].a", path(index.find(TestStructs.recordOffset(0))));
+        assertEquals("records[1].b", path(index.find(TestStructs.recordOffset(1) + 2)));
+        assertEquals("records[2].b", path(index.find(TestStructs.recordOffset(2) + 3)));
+    }
+
+    @Test
+    public void fieldsOfSubstreamsAreShifted() {
+        // Positions of `tail.a` and `tail.b` are relative to the substream of `tail`
+        final OffsetIndex index = new OffsetIndex();
+        index.build(sample);
+
+        final OffsetIndex.Field a = index.find(TestStructs.recordOffset(3));
+        assertEquals("tail.a", path(a));
+        assertEquals(TestStructs.recordOffset(3), a.start());
+        assertEquals(TestStructs.recordOffset(3) + 2, a.end());
+        assertEquals("tail.b", path(index.find(TestStructs.recordOffset(3) + 3)));
+    }
+
+    @Test
+    public void offsetsOutsideOfFieldsAreNotFound() {
+        final OffsetIndex index = new OffsetIndex();
+        index.build(sample);
+
+        assertNull(index.find(-1));
+        assertNull(index.find(TestStructs.sampleSize(3)));
+        assertNull(index.find(TestStructs.sampleSize(3) + 1));
+    }
+
+    @Test
+    public void addedFieldsAreFoundBeforeBuild() {
+        final OffsetIndex index = new OffsetIndex();
+        index.add(sample, Arrays.asList("magic", "count"));
+
+        assertFalse(index.isComplete());
+        assertEquals("magic", path(index.find(1)));
+        assertEquals("count", path(index.find(2)));
+        assertNull(index.find(TestStructs.recordOffset(0)));
+    }
+
+    @Test
+    public void fillsSearchIndex() throws InterruptedException {
+        final SearchIndex search = new SearchIndex();
+        new OffsetIndex(search).build(sample);
+
+        // magic, count, records, 3 * (record, a, b), tail, tail.a, tail.b
+        assertEquals(15, search.size());
+
+        final List<String> found = Collections.synchronizedList(new ArrayList<String>());
+        search.search(SearchIndex.parse("=" + TestStructs.TAIL_A), new SearchIndex.Listener() {
+            @Override
+            public void found(List<SearchIndex.Result> results) {
+                for (final SearchIndex.Result r : results) {
+                    found.add(r.path() + "@" + r.field().start());
+                }
+            }
+        }, new SearchIndex.Search());
+        assertEquals(Collections.singletonList("tail.a@" + TestStructs.recordOffset(3)), found);
+    }
+
+    private static String path(OffsetIndex.Field field) {
+        return field == null ? null : field.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package io.kaitai.struct.visualizer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchIndexTest {
+    @Test
+    public void findsFieldsOfNestedStructs() throws InterruptedException {
+        final SearchIndex index = build(TestStructs.parseSample(TestStructs.sampleBytes(10000, 0)));
+
+        assertNull(index.error());
+        assertEquals(Collections.singletonList("records[9999].b@" + (TestStructs.recordOffset(9999) + 2)), search(index, "=19998"));
+    }
+
+    @Test
+    public void searchOfFailedIndexReportsError() throws InterruptedException {
+        final SearchIndex index = new SearchIndex();
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        pool.shutdown();
+        try {
+            new OffsetIndex(index, pool).build(TestStructs.parseSample(TestStructs.sampleBytes(3, 0)));
+            fail("walk on a stopped pool");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        // Search does not wait for the index forever and finds already indexed fields
+        assertEquals(Collections.singletonList("magic@0"), search(index, "name:magic"));
+        assertNotNull(index.error());
+    }
+
+    @Test
+    public void parsesNegativeRanges() {
+        final SearchIndex.Query around = SearchIndex.parse("-5..5");
+        assertTrue(around.matches(null, -5));
+        assertTrue(around.matches(null, 5L));
+        assertFalse(around.matches(null, -6));
+
+        final SearchIndex.Query negative = SearchIndex.parse("-10..-5");
+        assertTrue(negative.matches(null, (short) -7));
+        assertFalse(negative.matches(null, -4));
+    }
+
+    @Test
+    public void parsesTextWithDotsAsText() {
+        final OffsetIndex.Field field = new OffsetIndex.Field(null, "name", -1, -1, -1);
+        final SearchIndex.Query query = SearchIndex.parse("-..x");
+
+        assertTrue(query.matches(field, "a-..x"));
+        assertFalse(query.matches(field, 0));
+    }
+
+    static SearchIndex build(TestStructs.Sample sample) {
+        final SearchIndex index = new SearchIndex();
+        new OffsetIndex(index).build(sample);
+        return index;
+    }
+
+    static List<String> search(SearchIndex index, String query) throws InterruptedException {
+        final List<String> found = Collections.synchronizedList(new ArrayList<String>());
+        index.search(SearchIndex.parse(query), new SearchIndex.Listener() {
+            @Override
+            public void found(List<SearchIndex.Result> results) {
+                for (final SearchIndex.Result r : results) {
+                    found.add(r.path() + "@" + r.field().start());
+                }
+            }
+        }, new SearchIndex.Search());
+        Collections.sort(found);
+        return found;
+    }
+}
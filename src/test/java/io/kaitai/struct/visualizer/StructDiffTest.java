@@ -0,0 +1,86 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StructDiffTest {
+    @Test
+    public void equalStructsHaveNoChanges() {
+        final StructDiff diff = new StructDiff();
+        final List<StructDiff.Change> changes = diff.compare(
+            TestStructs.parseSample(TestStructs.sampleBytes(5, 0)),
+            TestStructs.parseSample(TestStructs.sampleBytes(5, 0))
+        );
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void reportsChangedField() {
+        final byte[] changed = TestStructs.sampleBytes(5, 0);
+        changed[TestStructs.recordOffset(1) + 3] = 42;
+
+        final StructDiff diff = new StructDiff();
+        final List<StructDiff.Change> changes = diff.compare(
+            TestStructs.parseSample(TestStructs.sampleBytes(5, 0)),
+            TestStructs.parseSample(changed)
+        );
+
+        assertEquals(1, changes.size());
+        final StructDiff.Change change = changes.get(0);
+        assertEquals("records[1].b", change.left().toString());
+        assertEquals("records[1].b", change.right().toString());
+        assertEquals(TestStructs.recordOffset(1) + 2, change.left().start());
+        assertEquals(2, change.leftValue());
+        assertEquals(42, change.rightValue());
+        // Other records have equal bytes
+        assertTrue(diff.skipped() >= 4);
+    }
+
+    @Test
+    public void changesAreOrderedByPosition() {
+        final byte[] changed = TestStructs.sampleBytes(5, 0);
+        changed[TestStructs.recordOffset(4)] = 1;
+        changed[1] = 0;
+
+        final List<StructDiff.Change> changes = new StructDiff().compare(
+            TestStructs.parseSample(TestStructs.sampleBytes(5, 0)),
+            TestStructs.parseSample(changed)
+        );
+
+        assertEquals(2, changes.size());
+        assertEquals("magic", changes.get(0).left().toString());
+        assertEquals("records[4].a", changes.get(1).left().toString());
+    }
+
+    @Test
+    public void reportsChangedCount() {
+        final List<StructDiff.Change> changes = new StructDiff().compare(
+            TestStructs.parseSample(TestStructs.sampleBytes(2, 0)),
+            TestStructs.parseSample(TestStructs.sampleBytes(3, 0))
+        );
+
+        assertEquals("count", changes.get(0).left().toString());
+        assertEquals(2L, changes.get(0).leftValue());
+        assertEquals(3L, changes.get(0).rightValue());
+    }
+
+    @Test
+    public void comparesStructsWithoutPositionInfo() {
+        final List<StructDiff.Change> changes = new StructDiff().compare(
+            new TestStructs.Opaque(new ByteBufferKaitaiStream(new byte[] {7})),
+            new TestStructs.Opaque(new ByteBufferKaitaiStream(new byte[] {8}))
+        );
+
+        assertEquals(1, changes.size());
+        assertEquals("value", changes.get(0).left().toString());
+        assertEquals(-1, changes.get(0).left().start());
+        assertEquals(7, changes.get(0).leftValue());
+        assertEquals(8, changes.get(0).rightValue());
+    }
+}
@@ -0,0 +1,224 @@
+package io.kaitai.struct.visualizer;
+
+import io.kaitai.struct.ByteBufferKaitaiStream;
+import io.kaitai.struct.KaitaiStream;
+import io.kaitai.struct.KaitaiStruct;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Structs for tests, written the same way as the compiler generates them with position
+ * info ({@code readStoresPos}), so tests do not need to compile .ksy files.
+ */
+final class TestStructs {
+    /** Value of {@code tail.a} in {@link #sampleBytes}. */
+    static final int TAIL_A = 0x1111;
+    /** Value of {@code tail.b} in {@link #sampleBytes}. */
+    static final int TAIL_B = 0x2222;
+
+    private TestStructs() {}
+
+    /**
+     * <pre>
+     * seq:
+     *   - id: magic
+     *     type: u2
+     *   - id: count
+     *     type: u4
+     *   - id: records
+     *     type: record
+     *     repeat: expr
+     *     repeat-expr: count
+     *   - id: tail
+     *     type: record
+     *     size: 4
+     * </pre>
+     */
+    static class Sample extends KaitaiStruct {
+        public Map<String, Integer> _attrStart = new HashMap<String, Integer>();
+        public Map<String, Integer> _attrEnd = new HashMap<String, Integer>();
+        public Map<String, ArrayList<Integer>> _arrStart = new HashMap<String, ArrayList<Integer>>();
+        public Map<String, ArrayList<Integer>> _arrEnd = new HashMap<String, ArrayList<Integer>>();
+
+        Sample(KaitaiStream _io) {
+            this(_io, null, null);
+        }
+
+        Sample(KaitaiStream _io, KaitaiStruct _parent, Sample _root) {
+            super(_io);
+            this._parent = _parent;
+            this._root = _root == null ? this : _root;
+        }
+
+        public void _read() {
+            _attrStart.put("magic", this._io.pos());
+            this.magic = this._io.readU2be();
+            _attrEnd.put("magic", this._io.pos());
+            _attrStart.put("count", this._io.pos());
+            this.count = this._io.readU4be();
+            _attrEnd.put("count", this._io.pos());
+            _attrStart.put("records", this._io.pos());
+            this.records = new ArrayList<Record>();
+            _arrStart.put("records", new ArrayList<Integer>());
+            _arrEnd.put("records", new ArrayList<Integer>());
+            for (int i = 0; i < count(); i++) {
+                _arrStart.get("records").add(this._io.pos());
+                Record _t_records = new Record(this._io);
+                this.records.add(_t_records);
+                _t_records._read();
+                _arrEnd.get("records").add(this._io.pos());
+            }
+            _attrEnd.put("records", this._io.pos());
+            _attrStart.put("tail", this._io.pos());
+            this._raw_tail = this._io.readBytes(4);
+            KaitaiStream _io__raw_tail = new ByteBufferKaitaiStream(_raw_tail);
+            this.tail = new Record(_io__raw_tail);
+            this.tail._read();
+            _attrEnd.put("tail", this._io.pos());
+        }
+
+        private int magic;
+        private long count;
+        private ArrayList<Record> records;
+        private Record tail;
+        private byte[] _raw_tail;
+        private Sample _root;
+        private KaitaiStruct _parent;
+
+        public int magic() { return magic; }
+        public long count() { return count; }
+        public ArrayList<Record> records() { return records; }
+        public Record tail() { return tail; }
+        public byte[] _raw_tail() { return _raw_tail; }
+        public Sample _root() { return _root; }
+        public KaitaiStruct _parent() { return _parent; }
+    }
+
+    /**
+     * <pre>
+     * seq:
+     *   - id: a
+     *     type: u2
+     *   - id: b
+     *     type: u2
+     * </pre>
+     */
+    static class Record extends KaitaiStruct {
+        public Map<String, Integer> _attrStart = new HashMap<String, Integer>();
+        public Map<String, Integer> _attrEnd = new HashMap<String, Integer>();
+        public Map<String, ArrayList<Integer>> _arrStart = new HashMap<String, ArrayList<Integer>>();
+        public Map<String, ArrayList<Integer>> _arrEnd = new HashMap<String, ArrayList<Integer>>();
+
+        Record(KaitaiStream _io) {
+            super(_io);
+        }
+
+        public void _read() {
+            _attrStart.put("a", this._io.pos());
+            this.a = this._io.readU2be();
+            _attrEnd.put("a", this._io.pos());
+            _attrStart.put("b", this._io.pos());
+            this.b = this._io.readU2be();
+            _attrEnd.put("b", this._io.pos());
+        }
+
+        private int a;
+        private int b;
+
+        public int a() { return a; }
+        public int b() { return b; }
+    }
+
+    /**
+     * <pre>
+     * seq:
+     *   - id: name
+     *     type: strz
+     *     encoding: UTF-8
+     *   - id: data
+     *     size-eos: true
+     * </pre>
+     */
+    static class Text extends KaitaiStruct {
+        public Map<String, Integer> _attrStart = new HashMap<String, Integer>();
+        public Map<String, Integer> _attrEnd = new HashMap<String, Integer>();
+        public Map<String, ArrayList<Integer>> _arrStart = new HashMap<String, ArrayList<Integer>>();
+        public Map<String, ArrayList<Integer>> _arrEnd = new HashMap<String, ArrayList<Integer>>();
+
+        Text(KaitaiStream _io) {
+            super(_io);
+        }
+
+        public void _read() {
+            _attrStart.put("name", this._io.pos());
+            this.name = new String(this._io.readBytesTerm(0, false, true, true), StandardCharsets.UTF_8);
+            _attrEnd.put("name", this._io.pos());
+            _attrStart.put("data", this._io.pos());
+            this.data = this._io.readBytesFull();
+            _attrEnd.put("data", this._io.pos());
+        }
+
+        private String name;
+        private byte[] data;
+
+        public String name() { return name; }
+        public byte[] data() { return data; }
+    }
+
+    /** Struct of a type, compiled without position info, e.g. an opaque type. */
+    static class Opaque extends KaitaiStruct {
+        private final int value;
+
+        Opaque(KaitaiStream _io) {
+            super(_io);
+            this.value = _io.readU1();
+        }
+
+        public int value() { return value; }
+    }
+
+    /**
+     * Input for {@link Sample}: record {@code i} has {@code a = i} and {@code b = 2 * i},
+     * tail has {@link #TAIL_A} and {@link #TAIL_B}.
+     * @param count Count of records
+     * @param trailing Count of zero bytes after the tail, which are not parsed
+     */
+    static byte[] sampleBytes(int count, int trailing) {
+        final ByteBuffer buf = ByteBuffer.allocate(sampleSize(count) + trailing);
+        buf.putShort((short) 0xCAFE);
+        buf.putInt(count);
+        for (int i = 0; i < count; ++i) {
+            buf.putShort((short) i);
+            buf.putShort((short) (2 * i));
+        }
+        buf.putShort((short) TAIL_A);
+        buf.putShort((short) TAIL_B);
+        return buf.array();
+    }
+
+    /** Count of bytes, parsed by {@link Sample} with the given count of records. */
+    static int sampleSize(int count) {
+        return 2 + 4 + 4 * count + 4;
+    }
+
+    /** Offset of the record in {@link #sampleBytes}. */
+    static int recordOffset(int idx) {
+        return 2 + 4 + 4 * idx;
+    }
+
+    static Sample parseSample(byte[] data) {
+        final Sample sample = new Sample(new ByteBufferKaitaiStream(data));
+        sample._read();
+        return sample;
+    }
+
+    static Text parseText(byte[] data) {
+        final Text text = new Text(new ByteBufferKaitaiStream(data));
+        text._read();
+        return text;
+    }
+}